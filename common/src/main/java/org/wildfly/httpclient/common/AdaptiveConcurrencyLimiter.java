@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrent invocations of a {@link HttpConnectionPool connection pool}, adapting the limit to
+ * the latency of the target with a gradient algorithm. The latency of each invocation is compared with a long term
+ * average: while it stays close, the limit grows by about its square root, and when it climbs the limit shrinks in
+ * proportion. Failed invocations shrink the limit by a fixed ratio. The requests over the limit wait in the queue of
+ * the pool rather than in the thread pools of the server.
+ */
+final class AdaptiveConcurrencyLimiter {
+
+    // weight of the new limit in the smoothed limit
+    private static final double SMOOTHING = 0.2;
+    // weight of a sample in the long term average of the latency, which spans about 600 samples
+    private static final double LONG_TERM_WEIGHT = 2.0 / 601;
+    // the latency may exceed the long term average by this ratio before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    private static final double BACK_OFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    // guarded by this
+    private double estimatedLimit;
+    private double longTermLatency;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Takes a permit for a new invocation.
+     *
+     * @return {@code false} if the limit is reached
+     */
+    boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Takes a permit even if the limit is reached, for an invocation that must not wait.
+     */
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Gives back a permit that was not used by an invocation.
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    boolean hasCapacity() {
+        return inFlight.get() < limit;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gives back the permit of a completed invocation, and adapts the limit to its outcome.
+     *
+     * @param latencyNanos the time the invocation took
+     * @param failed       {@code true} if the invocation failed
+     */
+    void onSample(long latencyNanos, boolean failed) {
+        final int inFlight = this.inFlight.getAndDecrement();
+        synchronized (this) {
+            double newLimit;
+            if (failed) {
+                newLimit = estimatedLimit * BACK_OFF_RATIO;
+            } else {
+                final double latency = Math.max(1, latencyNanos);
+                longTermLatency = longTermLatency == 0 ? latency : longTermLatency + (latency - longTermLatency) * LONG_TERM_WEIGHT;
+                if (longTermLatency / latency > 2) {
+                    // the load dropped, let the long term average catch up faster
+                    longTermLatency *= 0.95;
+                }
+                if (inFlight < estimatedLimit / 2) {
+                    // the limit is not used, the latency says nothing about it
+                    return;
+                }
+                final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermLatency / latency));
+                newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            }
+            newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            limit = (int) estimatedLimit;
+        }
+    }
+}
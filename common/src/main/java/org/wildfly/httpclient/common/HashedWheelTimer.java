@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A timer shared by all the connection pools and target contexts of the client, for request deadlines and connection
+ * idle timeouts. Scheduling and cancelling are constant time and never contend on a lock: new timeouts are handed to
+ * the timer thread through a concurrent queue, and the timer thread is the only one touching the wheel. Timeouts longer
+ * than a rotation of the wheel stay in their bucket for the number of rotations left, so the IO threads never have to
+ * manage timer tasks.
+ * <p>
+ * Timeouts expire on the timer thread with a precision of one tick, so expiry tasks must be short and must not block.
+ * Tasks touching a connection should hand themselves over to its IO thread.
+ */
+final class HashedWheelTimer {
+
+    static final HashedWheelTimer INSTANCE = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512);
+
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile long startTime;
+
+    @SuppressWarnings("unchecked")
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("ticksPerWheel");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Queue[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; ++i) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = ticksPerWheel - 1;
+    }
+
+    /**
+     * Schedules {@code task} to run once {@code delay} has elapsed, unless the returned timeout is cancelled first.
+     *
+     * @param task  the task to run in the timer thread
+     * @param delay the delay
+     * @param unit  the unit of the delay
+     * @return the timeout
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        final Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void start() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            startTime = System.nanoTime();
+            final Thread thread = new Thread(this::run, "wildfly-http-client-timer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        for (; ; ) {
+            final long tickTime = startTime + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = tickTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            transferNewTimeouts(tick);
+            expire(wheel[(int) (tick & mask)], tickTime);
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state != Timeout.PENDING) {
+                continue;
+            }
+            // the tick at the end of which the deadline is reached, never a tick that is already over
+            final long deadlineTick = Math.max(currentTick, (timeout.deadline - startTime) / tickNanos);
+            timeout.remainingRounds = (deadlineTick - currentTick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket, long tickTime) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            final Timeout timeout = it.next();
+            if (timeout.state != Timeout.PENDING) {
+                it.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else if (timeout.deadline <= tickTime) {
+                it.remove();
+                timeout.expire();
+            }
+        }
+    }
+
+    /**
+     * A task scheduled in the timer.
+     */
+    static final class Timeout {
+
+        private static final AtomicIntegerFieldUpdater<Timeout> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        // only accessed by the timer thread
+        private long remainingRounds;
+        private volatile int state;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout.
+         *
+         * @return {@code true} if the task will not run, {@code false} if it has already expired
+         */
+        boolean cancel() {
+            return stateUpdater.compareAndSet(this, PENDING, CANCELLED) || state == CANCELLED;
+        }
+
+        private void expire() {
+            if (stateUpdater.compareAndSet(this, PENDING, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    HttpClientMessages.MESSAGES.debugf(t, "Timeout task %s failed", task);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.Arrays;
+
+/**
+ * Decides when the idempotent requests of a target are hedged. The hedging delay is a percentile of the latency of the
+ * last {@link #WINDOW} idempotent requests, and the number of hedged requests is capped by a budget: each request
+ * earns a fraction of a token, and each hedged request spends a whole token.
+ */
+final class HedgingPolicy {
+
+    private static final int WINDOW = 128;
+    // the delay is computed again every RECOMPUTE_INTERVAL samples
+    private static final int RECOMPUTE_INTERVAL = 16;
+    private static final int MIN_SAMPLES = 32;
+    private static final double MAX_TOKENS = 10;
+
+    private final double percentile;
+    private final double tokensPerRequest;
+    // guarded by this
+    private final long[] samples = new long[WINDOW];
+    private long sampleCount;
+    private double tokens;
+    private volatile long delay;
+
+    /**
+     * @param percentile the percentile of the latency after which a request is hedged, between 1 and 99
+     * @param budget     the maximum ratio of hedged requests, in percent
+     */
+    HedgingPolicy(int percentile, int budget) {
+        this.percentile = Math.max(1, Math.min(99, percentile)) / 100.0;
+        this.tokensPerRequest = Math.max(0, budget) / 100.0;
+    }
+
+    /**
+     * Accounts a new idempotent request in the budget.
+     *
+     * @return the delay in nanoseconds after which the request should be hedged, or {@code 0} if not enough latency
+     * samples were collected yet
+     */
+    long requestStarted() {
+        synchronized (this) {
+            tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+        }
+        return delay;
+    }
+
+    /**
+     * Spends the budget of a hedged request.
+     *
+     * @return {@code false} if the budget is exhausted
+     */
+    synchronized boolean tryHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Records the latency of an idempotent request that was answered.
+     *
+     * @param latencyNanos the time from sending the request to its response
+     */
+    synchronized void record(long latencyNanos) {
+        samples[(int) (sampleCount++ % WINDOW)] = latencyNanos;
+        if (sampleCount >= MIN_SAMPLES && sampleCount % RECOMPUTE_INTERVAL == 0) {
+            final long[] sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, WINDOW));
+            Arrays.sort(sorted);
+            delay = Math.max(1, sorted[(int) Math.min(sorted.length - 1, (long) Math.ceil(percentile * sorted.length))]);
+        }
+    }
+}
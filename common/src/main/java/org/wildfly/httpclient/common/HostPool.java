@@ -23,8 +23,19 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * A host pool is defined as one or more hosts that are are serving
@@ -41,54 +52,458 @@ import java.util.concurrent.atomic.AtomicLong;
  * This class is also DNS load balancing aware. If there are multiple IP's for a given URL the different URL's will
  * be added to the rotation.
  * <p>
- * This host pool will attempt to simply use a single address, if it is notified of failure on that address it will
- * instead select a different URI. If there are multiple addresses per URI then the next time the URI is selected
- * it will attempt to use a new address.
- *
+ * With the default {@link Strategy#STICKY sticky} strategy, this host pool will attempt to simply use a single
+ * address, if it is notified of failure on that address it will instead select a different URI. If there are
+ * multiple addresses per URI then the next time the URI is selected it will attempt to use a new address.
+ * <p>
+ * The other strategies spread the connections of the pool over all the addresses, picking the address of each new
+ * connection by its load: the number of invocations in flight on its connections plus the connections being opened
+ * to it. An address that fails is left out for a back-off period, and once a connection to it succeeds again its
+ * load is weighted down for {@link #SLOW_START_WINDOW} so that it is not flooded right after recovering.
+ * <p>
+ * The host name is resolved in the background, starting when the host pool is created. If a DNS TTL is set, it is
+ * resolved again in the background once the TTL has elapsed, and the new list of addresses replaces the previous one
+ * atomically. New addresses go through the slow start, and the connections to addresses that are gone are closed
+ * once their current invocations are done. No thread waits for the resolver: connections are opened once the
+ * resolution completes, and selecting an address before that fails with an {@link UnknownHostException}.
+ * <p>
+ * The addresses of both families are kept, so that {@link HttpConnectionPool} can race a connection attempt to an
+ * address of the other family when the attempt to the selected address is slow (RFC 8305).
+ * <p>
+ * An address whose invocations keep failing (server errors, timeouts or I/O errors) is ejected: no new connection is
+ * opened to it, and its connections stop taking invocations. Once the ejection time has elapsed, the address is
+ * probed from the timer shared by the client, whether or not new connections are being opened, and it only gets
+ * invocations again, through the slow start, if it answers the probe. The ejection time doubles each time the probe
+ * fails. The last address that is not ejected is never ejected.
  *
  * @author Stuart Douglas
  */
 public class HostPool {
 
+    /**
+     * The strategies used to pick the address of a new connection.
+     */
+    public enum Strategy {
+        /**
+         * Use a single address, until it fails.
+         */
+        STICKY,
+        /**
+         * Use the address with the least outstanding requests.
+         */
+        LEAST_OUTSTANDING_REQUESTS,
+        /**
+         * Pick two addresses at random, and use the one with the least outstanding requests.
+         */
+        POWER_OF_TWO_CHOICES,
+        /**
+         * Use the address with the lowest moving average of request latency, weighted by its outstanding requests.
+         */
+        EWMA_LATENCY;
+
+        /**
+         * Returns the strategy with the given name, in lower case with hyphens (for instance
+         * {@code least-outstanding-requests}).
+         *
+         * @param name the name of the strategy
+         * @return the strategy, or {@code null} if there is no strategy with that name
+         */
+        public static Strategy forName(String name) {
+            for (Strategy strategy : values()) {
+                if (strategy.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return strategy;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name().replace('_', '-').toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    static final long SLOW_START_WINDOW = TimeUnit.SECONDS.toNanos(30);
+    // the weight of a recovered address at the beginning of its slow start
+    private static final double SLOW_START_MIN_WEIGHT = 0.1;
+    // the weight of the last request in the moving average of the latency of an address
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long MAX_BACK_OFF = TimeUnit.SECONDS.toNanos(30);
+    // the number of invocations in a row that must fail for an address to be ejected
+    static final int EJECTION_THRESHOLD = 5;
+    private static final long BASE_EJECTION_TIME = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_EJECTION_TIME = TimeUnit.MINUTES.toNanos(5);
+
+    // resolves host names off the IO threads
+    private static final Executor RESOLVER = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+        final Thread thread = new Thread(task, "wildfly-http-client-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the resolution of a host pool whose addresses are known
+    private static final CompletableFuture<?> RESOLVED = CompletableFuture.completedFuture(null);
+
     private final URI uri;
-    private volatile InetAddress[] addresses;
+    private final Strategy strategy;
+    private final long dnsTtl;
+    private volatile Address[] addresses;
     private volatile int currentAddress;
     private final AtomicLong failureCount = new AtomicLong();
+    // the first resolution of the host name, null if it has to be started again
+    private volatile CompletableFuture<Address[]> initialResolution;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long nextRefresh;
+    // checks if ejected addresses answer again, null to re-admit them once their ejection time has elapsed
+    private volatile Prober prober;
 
     public HostPool(URI uri) {
+        this(uri, Strategy.STICKY);
+    }
+
+    public HostPool(URI uri, Strategy strategy) {
+        this(uri, strategy, 0);
+    }
+
+    /**
+     * Creates a host pool.
+     *
+     * @param uri      the URI of the target
+     * @param strategy the strategy used to pick the address of new connections
+     * @param dnsTtl   the time in milliseconds after which the host name is resolved again, or {@code 0} to resolve it
+     *                 only once
+     */
+    public HostPool(URI uri, Strategy strategy, long dnsTtl) {
         this.uri = uri;
+        this.strategy = strategy == null ? Strategy.STICKY : strategy;
+        this.dnsTtl = dnsTtl;
+        startInitialResolution();
+    }
+
+    /**
+     * Creates a host pool of known addresses, which never resolves the host name of {@code uri}.
+     */
+    HostPool(URI uri, Strategy strategy, InetAddress... addresses) {
+        this.uri = uri;
+        this.strategy = strategy == null ? Strategy.STICKY : strategy;
+        this.dnsTtl = 0;
+        final Address[] resolved = toAddresses(addresses, null);
+        this.addresses = resolved;
+        this.initialResolution = CompletableFuture.completedFuture(resolved);
+    }
+
+    /**
+     * Checks if an ejected address answers again.
+     */
+    interface Prober {
+
+        /**
+         * Probes an address.
+         *
+         * @param address  the address to probe
+         * @param callback notified with {@code true} if the address answered the probe, from any thread
+         */
+        void probe(InetAddress address, Consumer<Boolean> callback);
+    }
+
+    void setProber(Prober prober) {
+        this.prober = prober;
+    }
+
+    /**
+     * Probes the ejected addresses whose ejection time has elapsed at {@code now}. The timer probes each ejected
+     * address once its ejection time has elapsed, this lets tests skip the wait.
+     *
+     * @param now the current time in nanoseconds
+     */
+    void probeEjectedAddresses(long now) {
+        final Address[] addresses = this.addresses;
+        if (addresses == null) {
+            return;
+        }
+        for (Address address : addresses) {
+            if (address.ejected) {
+                address.probeIfDue(now);
+            }
+        }
     }
 
     public AddressResult getAddress() {
         return new AddressResult(failureCount.get());
     }
 
-    private InetAddress getAddressImpl() throws UnknownHostException {
-        while (true) {
-            InetAddress[] addresses = this.addresses;
-            int currentAddress = this.currentAddress;
-            if (addresses == null) {
+    /**
+     * Returns a result whose address is another address than {@code excluded}, if the host pool has one that is not
+     * ejected.
+     *
+     * @param excluded the address to avoid, or {@code null}
+     * @return the result
+     */
+    AddressResult getAddress(InetAddress excluded) {
+        final AddressResult result = new AddressResult(failureCount.get());
+        result.excluded = excluded;
+        return result;
+    }
+
+    /**
+     * Returns a future that completes once the host name is resolved, so that callers can wait for the resolver
+     * without blocking their thread before they select an address. The future completes exceptionally if the host
+     * name cannot be resolved.
+     *
+     * @return the future
+     */
+    CompletableFuture<?> getResolution() {
+        if (addresses != null) {
+            return RESOLVED;
+        }
+        final CompletableFuture<Address[]> resolution = this.initialResolution;
+        return resolution == null ? startInitialResolution() : resolution;
+    }
+
+    private Address[] getAddresses() throws UnknownHostException {
+        Address[] addresses = this.addresses;
+        if (addresses == null) {
+            CompletableFuture<Address[]> resolution = this.initialResolution;
+            if (resolution == null) {
+                resolution = startInitialResolution();
+            }
+            if (!resolution.isDone()) {
+                // never wait for the resolver, callers use getResolution() to select an address once it is done
+                throw new UnknownHostException(uri.getHost());
+            }
+            try {
+                return resolution.join();
+            } catch (CompletionException e) {
+                // let the next caller try again
                 synchronized (this) {
-                    if ((addresses = this.addresses) == null) {
-                        addresses = InetAddress.getAllByName(uri.getHost());
-                        InetAddress primary = InetAddress.getByName(uri.getHost());
-                        List<InetAddress> filtered = new ArrayList<>();
-                        //TODO: how to we handle addresses of different classes?
-                        //at the moment we only take addresses of the same type that is returned from getByName
-                        for(InetAddress a : addresses) {
-                            if(primary.getClass().isAssignableFrom(a.getClass())) {
-                                filtered.add(a);
-                            }
+                    if (this.initialResolution == resolution) {
+                        this.initialResolution = null;
+                    }
+                }
+                if (e.getCause() instanceof UnknownHostException) {
+                    throw (UnknownHostException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        if (dnsTtl > 0 && System.nanoTime() - nextRefresh >= 0 && refreshing.compareAndSet(false, true)) {
+            RESOLVER.execute(this::refresh);
+        }
+        return addresses;
+    }
+
+    private synchronized CompletableFuture<Address[]> startInitialResolution() {
+        CompletableFuture<Address[]> resolution = this.initialResolution;
+        if (resolution == null) {
+            this.initialResolution = resolution = CompletableFuture.supplyAsync(() -> {
+                final Address[] addresses;
+                try {
+                    addresses = toAddresses(resolve(), null);
+                } catch (UnknownHostException e) {
+                    throw new CompletionException(e);
+                }
+                this.currentAddress = new Random().nextInt(addresses.length);
+                this.nextRefresh = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dnsTtl);
+                this.addresses = addresses;
+                return addresses;
+            }, RESOLVER);
+        }
+        return resolution;
+    }
+
+    /**
+     * Resolves the host name, keeping the addresses of both families. As in RFC 8305, they are interleaved, starting
+     * with the family of the address returned by {@code getByName}.
+     */
+    private InetAddress[] resolve() throws UnknownHostException {
+        InetAddress[] all = InetAddress.getAllByName(uri.getHost());
+        InetAddress primary = InetAddress.getByName(uri.getHost());
+        List<InetAddress> preferred = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        for(InetAddress a : all) {
+            if(primary.getClass().isAssignableFrom(a.getClass())) {
+                preferred.add(a);
+            } else {
+                other.add(a);
+            }
+        }
+        InetAddress[] result = new InetAddress[all.length];
+        int pos = 0;
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); ++i) {
+            if (i < preferred.size()) {
+                result[pos++] = preferred.get(i);
+            }
+            if (i < other.size()) {
+                result[pos++] = other.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the address to race against an address whose connection attempt is slow or failed.
+     *
+     * @param address the address being connected to
+     * @return an address of the other family, preferring the ones that did not fail recently, or {@code null} if the
+     *         host has no address of the other family
+     */
+    private Address selectFallback(Address address) {
+        final Address[] addresses = this.addresses;
+        if (addresses == null) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        Address fallback = null;
+        for (Address candidate : addresses) {
+            if (candidate.address.getClass() != address.address.getClass() && !candidate.removed) {
+                if (candidate.isAvailable(now)) {
+                    return candidate;
+                }
+                if (fallback == null) {
+                    fallback = candidate;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Maps resolved addresses to their load balancing state, keeping the state of the addresses that were already
+     * known.
+     */
+    private Address[] toAddresses(InetAddress[] resolved, Address[] previous) {
+        final Address[] addresses = new Address[resolved.length];
+        for (int i = 0; i < resolved.length; ++i) {
+            Address existing = null;
+            if (previous != null) {
+                for (Address address : previous) {
+                    if (address.address.equals(resolved[i])) {
+                        existing = address;
+                        break;
+                    }
+                }
+            }
+            if (existing == null) {
+                existing = new Address(resolved[i]);
+                if (previous != null) {
+                    // a node that was added, do not flood it
+                    existing.startSlowStart();
+                }
+            }
+            addresses[i] = existing;
+        }
+        return addresses;
+    }
+
+    /**
+     * Resolves the host name again, in a resolver thread.
+     */
+    private void refresh() {
+        try {
+            final Address[] previous = this.addresses;
+            final InetAddress[] resolved = resolve();
+            if (resolved.length == 0) {
+                return;
+            }
+            final Address[] addresses = toAddresses(resolved, previous);
+            for (Address address : previous) {
+                boolean found = false;
+                for (Address current : addresses) {
+                    if (current == address) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    // the connections to this address are closed once their invocations are done
+                    address.removed = true;
+                }
+            }
+            synchronized (this) {
+                int current = 0;
+                final Address currentAddress = previous[Math.min(this.currentAddress, previous.length - 1)];
+                for (int i = 0; i < addresses.length; ++i) {
+                    if (addresses[i] == currentAddress) {
+                        current = i;
+                    }
+                }
+                this.addresses = addresses;
+                this.currentAddress = current;
+            }
+        } catch (UnknownHostException e) {
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to resolve %s again, keeping the previous addresses", uri.getHost());
+        } finally {
+            nextRefresh = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dnsTtl);
+            refreshing.set(false);
+        }
+    }
+
+    private Address selectAddress(InetAddress excluded) throws UnknownHostException {
+        while (true) {
+            final Address[] addresses = getAddresses();
+            final long now = System.nanoTime();
+            if (strategy == Strategy.STICKY || addresses.length == 1) {
+                int currentAddress = this.currentAddress;
+                if (currentAddress >= addresses.length) {
+                    continue; //minor chance of a race, as the address list and current address are not invoked atomically just re-invoke
+                }
+                if (addresses[currentAddress].ejected) {
+                    moveOffEjected();
+                    currentAddress = Math.min(this.currentAddress, addresses.length - 1);
+                }
+                if (excluded != null && addresses[currentAddress].address.equals(excluded)) {
+                    // use the next address for this connection only, without moving the sticky address
+                    for (int i = 1; i < addresses.length; ++i) {
+                        final Address next = addresses[(currentAddress + i) % addresses.length];
+                        if (!next.ejected && !next.removed && !next.address.equals(excluded)) {
+                            return next;
                         }
-                        addresses = this.addresses = filtered.toArray(new InetAddress[filtered.size()]);
                     }
-                    this.currentAddress = currentAddress = new Random().nextInt(this.addresses.length);
+                }
+                return addresses[currentAddress];
+            }
+            final List<Address> candidates = new ArrayList<>(addresses.length);
+            for (Address address : addresses) {
+                if (address.isAvailable(now) && !address.address.equals(excluded)) {
+                    candidates.add(address);
+                }
+            }
+            if (candidates.isEmpty() && excluded != null) {
+                for (Address address : addresses) {
+                    if (address.isAvailable(now)) {
+                        candidates.add(address);
+                    }
+                }
+            }
+            if (candidates.isEmpty()) {
+                // every address failed recently, try them all rather than none
+                for (Address address : addresses) {
+                    candidates.add(address);
                 }
             }
-            if (currentAddress >= addresses.length) {
-                continue; //minor chance of a race, as the address list and current address are not invoked atomically just re-invoke
+            final Address selected;
+            if (strategy == Strategy.POWER_OF_TWO_CHOICES && candidates.size() > 2) {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                final int first = random.nextInt(candidates.size());
+                int second = random.nextInt(candidates.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+                final Address a = candidates.get(first);
+                final Address b = candidates.get(second);
+                selected = a.getLoad(strategy, now) <= b.getLoad(strategy, now) ? a : b;
+            } else {
+                Address best = null;
+                double bestLoad = Double.MAX_VALUE;
+                for (Address address : candidates) {
+                    final double load = address.getLoad(strategy, now);
+                    if (best == null || load < bestLoad) {
+                        best = address;
+                        bestLoad = load;
+                    }
+                }
+                selected = best;
             }
-            return addresses[currentAddress];
+            return selected;
         }
     }
 
@@ -96,26 +511,274 @@ public class HostPool {
         return uri;
     }
 
-    private void markError() {
-        synchronized (this) {
-            int current = currentAddress;
-            current++;
-            if (current == addresses.length) {
-                current = 0;
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public long getDnsTtl() {
+        return dnsTtl;
+    }
+
+    private void markError(Address address) {
+        failureCount.incrementAndGet();
+        if (address != null) {
+            address.failed();
+        }
+        if (strategy == Strategy.STICKY) {
+            synchronized (this) {
+                int current = currentAddress;
+                current++;
+                if (current >= addresses.length) {
+                    current = 0;
+                }
+                this.currentAddress = current;
             }
-            this.currentAddress = current;
         }
     }
+
+    /**
+     * Moves the sticky address to the next address that is not ejected, if any.
+     */
+    private synchronized void moveOffEjected() {
+        final Address[] addresses = this.addresses;
+        for (int i = 1; i <= addresses.length; ++i) {
+            final int next = (currentAddress + i) % addresses.length;
+            if (!addresses[next].ejected) {
+                currentAddress = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Indicates if an address can be ejected without ejecting all of them.
+     */
+    private boolean canEject(Address address) {
+        final Address[] addresses = this.addresses;
+        if (addresses == null) {
+            return false;
+        }
+        for (Address other : addresses) {
+            if (other != address && !other.ejected && !other.removed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The load balancing state of a resolved address.
+     */
+    private final class Address {
+        final InetAddress address;
+        // invocations in flight on connections to this address
+        final AtomicInteger outstanding = new AtomicInteger();
+        // connections being opened to this address
+        final AtomicInteger connecting = new AtomicInteger();
+        volatile double latencyEwma;
+        volatile int consecutiveFailures;
+        volatile long retryTime;
+        volatile long slowStartTime;
+        volatile boolean slowStart;
+        // the address is not returned by the DNS anymore
+        volatile boolean removed;
+        // invocations in a row that failed on connections to this address
+        final AtomicInteger consecutiveErrors = new AtomicInteger();
+        // the address is out of the load balancing until it answers a probe
+        volatile boolean ejected;
+        // the number of ejections without a success in between, sets the ejection time
+        volatile int ejections;
+        volatile long ejectedUntil;
+        final AtomicBoolean probing = new AtomicBoolean();
+        // probes this address once its ejection time has elapsed, guarded by the host pool
+        private HashedWheelTimer.Timeout probeTimeout;
+
+        Address(InetAddress address) {
+            this.address = address;
+        }
+
+        boolean isAvailable(long now) {
+            return !ejected && (consecutiveFailures == 0 || now - retryTime >= 0);
+        }
+
+        double getLoad(Strategy strategy, long now) {
+            double load = outstanding.get() + connecting.get();
+            if (strategy == Strategy.EWMA_LATENCY) {
+                // an address without samples yet counts as the fastest one, so that it gets sampled
+                load = (load + 1) * latencyEwma;
+            }
+            return load / getWeight(now);
+        }
+
+        private double getWeight(long now) {
+            if (!slowStart) {
+                return 1;
+            }
+            final long elapsed = now - slowStartTime;
+            if (elapsed >= SLOW_START_WINDOW) {
+                slowStart = false;
+                return 1;
+            }
+            return Math.max(SLOW_START_MIN_WEIGHT, (double) elapsed / SLOW_START_WINDOW);
+        }
+
+        void failed() {
+            final int failures = consecutiveFailures + 1;
+            consecutiveFailures = failures;
+            retryTime = System.nanoTime() + Math.min(MAX_BACK_OFF, TimeUnit.SECONDS.toNanos(1) << Math.min(failures - 1, 5));
+        }
+
+        void connected() {
+            if (consecutiveFailures != 0) {
+                consecutiveFailures = 0;
+                startSlowStart();
+            }
+        }
+
+        void startSlowStart() {
+            slowStartTime = System.nanoTime();
+            slowStart = true;
+        }
+
+        void requestCompleted(long latencyNanos, boolean failed) {
+            outstanding.decrementAndGet();
+            // racy by design, a lost sample does not matter for a moving average
+            final double ewma = latencyEwma;
+            latencyEwma = ewma == 0 ? latencyNanos : ewma + (latencyNanos - ewma) * LATENCY_WEIGHT;
+            if (failed) {
+                if (consecutiveErrors.incrementAndGet() >= EJECTION_THRESHOLD) {
+                    eject();
+                }
+            } else if (consecutiveErrors.get() != 0) {
+                consecutiveErrors.set(0);
+                if (!ejected && ejections != 0 && System.nanoTime() - ejectedUntil >= MAX_EJECTION_TIME) {
+                    // healthy for long enough, the next ejection starts from the base ejection time again
+                    ejections = 0;
+                }
+            }
+        }
+
+        private void eject() {
+            // under the lock of the host pool, so that concurrent ejections cannot eject all the addresses
+            synchronized (HostPool.this) {
+                if (ejected || !canEject(this)) {
+                    return;
+                }
+                consecutiveErrors.set(0);
+                ejected = true;
+                extendEjection();
+                scheduleProbe();
+            }
+            HttpClientMessages.MESSAGES.debugf("Ejecting %s of %s after %d failed invocations in a row", address, uri, EJECTION_THRESHOLD);
+            if (strategy == Strategy.STICKY) {
+                moveOffEjected();
+            }
+        }
+
+        private void extendEjection() {
+            final int ejections = this.ejections + 1;
+            this.ejections = ejections;
+            ejectedUntil = System.nanoTime() + Math.min(MAX_EJECTION_TIME, BASE_EJECTION_TIME << Math.min(ejections - 1, 5));
+        }
+
+        /**
+         * Schedules the probe of this address at the end of its ejection time, replacing the probe scheduled before.
+         */
+        private void scheduleProbe() {
+            assert Thread.holdsLock(HostPool.this);
+            if (probeTimeout != null) {
+                probeTimeout.cancel();
+            }
+            probeTimeout = HashedWheelTimer.INSTANCE.schedule(this::probeOnTimer, Math.max(1, ejectedUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Runs in the timer thread once the ejection time of this address has elapsed.
+         */
+        private void probeOnTimer() {
+            synchronized (HostPool.this) {
+                probeTimeout = null;
+                if (!ejected || removed) {
+                    // re-admitted meanwhile, or gone from the DNS
+                    return;
+                }
+                if (System.nanoTime() - ejectedUntil < 0) {
+                    // the ejection was extended meanwhile
+                    scheduleProbe();
+                    return;
+                }
+            }
+            probeIfDue(System.nanoTime());
+        }
+
+        /**
+         * Probes this address if its ejection time has elapsed, re-admitting it once it answers.
+         */
+        void probeIfDue(long now) {
+            if (removed || now - ejectedUntil < 0 || !probing.compareAndSet(false, true)) {
+                return;
+            }
+            final Prober prober = HostPool.this.prober;
+            if (prober == null) {
+                probed(true);
+                return;
+            }
+            try {
+                prober.probe(address, this::probed);
+            } catch (RuntimeException e) {
+                HttpClientMessages.MESSAGES.debugf(e, "Failed to probe %s of %s", address, uri);
+                probed(false);
+            }
+        }
+
+        private void probed(boolean answered) {
+            synchronized (HostPool.this) {
+                if (answered) {
+                    consecutiveErrors.set(0);
+                    ejected = false;
+                    startSlowStart();
+                    if (probeTimeout != null) {
+                        probeTimeout.cancel();
+                        probeTimeout = null;
+                    }
+                } else {
+                    extendEjection();
+                    scheduleProbe();
+                }
+            }
+            probing.set(false);
+            if (answered) {
+                HttpClientMessages.MESSAGES.debugf("Re-admitting %s of %s", address, uri);
+            }
+        }
+    }
+
     public class AddressResult {
 
         private final long failCount;
+        private Address address;
+        private boolean connecting;
+        // the address to avoid when selecting the address of this result, if any
+        private InetAddress excluded;
 
         public AddressResult(long failCount) {
             this.failCount = failCount;
         }
 
         public InetAddress getAddress() throws UnknownHostException {
-            return getAddressImpl();
+            if (address == null) {
+                address = selectAddress(excluded);
+            }
+            return address.address;
+        }
+
+        /**
+         * Returns the address of this result, if it was selected already.
+         *
+         * @return the address, or {@code null} if {@link #getAddress()} was not invoked yet
+         */
+        InetAddress getSelectedAddress() {
+            return address == null ? null : address.address;
         }
 
         public URI getURI() {
@@ -123,7 +786,109 @@ public class HostPool {
         }
 
         public void failed() {
-            markError();
+            connectionAttemptDone();
+            markError(address);
+        }
+
+        /**
+         * Returns the address a connection attempt should race against, if the attempt to the address of this result
+         * is slow. Must be invoked after {@link #getAddress()}.
+         *
+         * @return the result for an address of the other family, or {@code null} if there is none
+         */
+        AddressResult getFallback() {
+            if (address == null) {
+                return null;
+            }
+            final Address fallback = selectFallback(address);
+            if (fallback == null) {
+                return null;
+            }
+            final AddressResult result = new AddressResult(failCount);
+            result.address = fallback;
+            return result;
+        }
+
+        /**
+         * Invoked when a connection to the address of this result is being opened.
+         */
+        void connectionStarted() {
+            if (address != null && !connecting) {
+                connecting = true;
+                address.connecting.incrementAndGet();
+            }
+        }
+
+        /**
+         * Invoked once a connection to the address of this result was established.
+         */
+        void connected() {
+            connectionAttemptDone();
+            if (address != null) {
+                address.connected();
+            }
+        }
+
+        /**
+         * Invoked once the connection attempt to the address of this result is over, whatever its outcome.
+         */
+        void connectionAttemptDone() {
+            if (connecting) {
+                connecting = false;
+                address.connecting.decrementAndGet();
+            }
+        }
+
+        /**
+         * Indicates if the address of this result disappeared from the DNS. The connections to that address should not
+         * take new invocations.
+         *
+         * @return {@code true} if the address was removed
+         */
+        boolean isRemoved() {
+            return address != null && address.removed;
+        }
+
+        /**
+         * Indicates if the address of this result is ejected because its invocations kept failing. The connections to
+         * that address should not take new invocations.
+         *
+         * @return {@code true} if the address is ejected
+         */
+        boolean isEjected() {
+            return address != null && address.ejected;
+        }
+
+        /**
+         * Invoked when an invocation starts on a connection to the address of this result.
+         */
+        void requestStarted() {
+            if (address != null) {
+                address.outstanding.incrementAndGet();
+            }
+        }
+
+        /**
+         * Invoked when an invocation on a connection to the address of this result is done.
+         *
+         * @param latencyNanos the time the connection was used by the invocation, in nanoseconds
+         * @param failed       {@code true} if the target failed the invocation, which counts towards the ejection of
+         *                     the address
+         */
+        void requestCompleted(long latencyNanos, boolean failed) {
+            if (address != null) {
+                address.requestCompleted(latencyNanos, failed);
+            }
+        }
+
+        /**
+         * Invoked when an invocation that was started on a connection to the address of this result gives the
+         * connection back without sending anything.
+         */
+        void requestCancelled() {
+            if (address != null) {
+                address.outstanding.decrementAndGet();
+            }
         }
 
     }
@@ -19,6 +19,7 @@
 package org.wildfly.httpclient.common;
 
 import java.io.IOException;
+import java.net.URI;
 import javax.naming.AuthenticationException;
 
 import org.jboss.logging.BasicLogger;
@@ -78,4 +79,22 @@ interface HttpClientMessages extends BasicLogger {
     @Message(id = 14, value = "JavaEE to JakartaEE backward compatibility layer have been installed")
     void javaeeToJakartaeeBackwardCompatibilityLayerInstalled();
 
+    @Message(id = 15, value = "Connection attempt to %s was cancelled")
+    IOException connectionCancelled(URI uri);
+
+    @Message(id = 16, value = "Request to %s timed out after %d ms")
+    IOException requestTimedOut(URI uri, long timeout);
+
+    @Message(id = 17, value = "Invalid load balancing strategy %s")
+    ConfigXMLParseException invalidLoadBalancingStrategy(String strategy);
+
+    @Message(id = 18, value = "The connection pool of %s is closed")
+    IOException connectionPoolClosed(URI uri);
+
+    @Message(id = 19, value = "Too many requests to %s are waiting for a connection (%d)")
+    IOException tooManyPendingRequests(URI uri, int maxPendingRequests);
+
+    @Message(id = 20, value = "The requests to %s in flight hold more than %d bytes of buffers")
+    IOException inFlightBytesExceeded(URI uri, long maxInFlightBytes);
+
 }
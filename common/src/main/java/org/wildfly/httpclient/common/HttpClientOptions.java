@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import org.xnio.Option;
+
+/**
+ * Options of the {@link HttpConnectionPool connection pools} that are not defined by Undertow. They are passed to
+ * the pool in the same {@link org.xnio.OptionMap} as the Undertow options.
+ */
+public final class HttpClientOptions {
+
+    private HttpClientOptions() {
+    }
+
+    /**
+     * The number of idle connections the pool keeps open, so that a burst of invocations does not have to wait for
+     * new connections to be established. Defaults to {@code 0}.
+     */
+    public static final Option<Integer> MIN_IDLE_CONNECTIONS = Option.simple(HttpClientOptions.class, "MIN_IDLE_CONNECTIONS", Integer.class);
+
+    /**
+     * The default time in milliseconds a request may take from the moment it is sent until the response headers
+     * arrive, including the time spent waiting for a connection. Defaults to {@code 0}, meaning no timeout.
+     */
+    public static final Option<Long> REQUEST_TIMEOUT = Option.simple(HttpClientOptions.class, "REQUEST_TIMEOUT", Long.class);
+
+    /**
+     * The strategy used to spread new connections over the addresses of a target. Defaults to
+     * {@link HostPool.Strategy#STICKY}.
+     */
+    public static final Option<HostPool.Strategy> LOAD_BALANCING = Option.simple(HttpClientOptions.class, "LOAD_BALANCING", HostPool.Strategy.class);
+
+    /**
+     * The time in milliseconds after which the host name of a target is resolved again in the background. Defaults to
+     * {@code 0}, meaning the host name is resolved only once.
+     */
+    public static final Option<Long> DNS_TTL = Option.simple(HttpClientOptions.class, "DNS_TTL", Long.class);
+
+    /**
+     * The time in milliseconds after which the context of a target that is not configured, and that has not been used
+     * during that time, is discarded. Its connections are closed once no caller holds the context anymore, unless
+     * other targets share them. {@code 0} keeps these contexts forever.
+     */
+    public static final Option<Long> TARGET_IDLE_TIMEOUT = Option.simple(HttpClientOptions.class, "TARGET_IDLE_TIMEOUT", Long.class);
+
+    /**
+     * Whether the number of concurrent invocations of a target adapts to its latency and errors, between {@code 1}
+     * and the maximum number of connections times the maximum number of streams per connection. The requests over the
+     * limit wait in the pool. Defaults to {@code false}, meaning the number of connections is the only limit.
+     */
+    public static final Option<Boolean> ADAPTIVE_CONCURRENCY = Option.simple(HttpClientOptions.class, "ADAPTIVE_CONCURRENCY", Boolean.class);
+
+    /**
+     * The percentile of the latency of a target after which an idempotent request is sent again on another connection,
+     * see {@link HttpTargetContext#IDEMPOTENT}. Defaults to {@code 0}, meaning requests are never hedged.
+     */
+    public static final Option<Integer> HEDGE_PERCENTILE = Option.simple(HttpClientOptions.class, "HEDGE_PERCENTILE", Integer.class);
+
+    /**
+     * The maximum ratio of hedged requests of a target, in percent of its idempotent requests. Defaults to {@code 10}.
+     */
+    public static final Option<Integer> HEDGE_BUDGET = Option.simple(HttpClientOptions.class, "HEDGE_BUDGET", Integer.class);
+
+    /**
+     * The maximum number of requests of a target waiting for a connection. The requests over the limit fail right away
+     * instead of being queued. Defaults to {@code 0}, meaning no limit.
+     */
+    public static final Option<Integer> MAX_PENDING_REQUESTS = Option.simple(HttpClientOptions.class, "MAX_PENDING_REQUESTS", Integer.class);
+
+    /**
+     * The maximum number of bytes of pooled buffers held by the request and response streams of a target. While the
+     * streams hold that many bytes, new requests fail right away instead of being queued. Defaults to {@code 0},
+     * meaning no limit.
+     */
+    public static final Option<Long> MAX_IN_FLIGHT_BYTES = Option.simple(HttpClientOptions.class, "MAX_IN_FLIGHT_BYTES", Long.class);
+
+    /**
+     * The maximum time in milliseconds a connection of a target takes new requests. An older connection is closed once
+     * its current requests are done, so that new connections are balanced again over the nodes behind a load balancer.
+     * Each connection gets a random jitter of up to a fifth of that time, so that connections opened together do not
+     * close together. Defaults to {@code 0}, meaning no limit.
+     */
+    public static final Option<Long> MAX_CONNECTION_AGE = Option.simple(HttpClientOptions.class, "MAX_CONNECTION_AGE", Long.class);
+
+    /**
+     * Whether the connections to a {@code http} target start HTTP/2 right away (h2c with prior knowledge), instead of
+     * starting with HTTP/1.1 and upgrading to HTTP/2. Only for targets known to speak HTTP/2 in cleartext. Defaults to
+     * {@code false}.
+     */
+    public static final Option<Boolean> H2C_PRIOR_KNOWLEDGE = Option.simple(HttpClientOptions.class, "H2C_PRIOR_KNOWLEDGE", Boolean.class);
+
+    /**
+     * The maximum number of pooled buffers of a response read from the connection ahead of the thread reading the
+     * response. Defaults to {@code 4}.
+     */
+    public static final Option<Integer> READ_AHEAD_BUFFERS = Option.simple(HttpClientOptions.class, "READ_AHEAD_BUFFERS", Integer.class);
+
+    /**
+     * The maximum number of full pooled buffers of a request body queued to be written to the connection, while the
+     * thread marshalling the request fills the next one. Defaults to {@code 2}.
+     */
+    public static final Option<Integer> WRITE_BEHIND_BUFFERS = Option.simple(HttpClientOptions.class, "WRITE_BEHIND_BUFFERS", Integer.class);
+
+    /**
+     * The maximum size in bytes of a request body that is marshalled before the request is sent, and sent with a
+     * {@code Content-Length} instead of being chunked. Defaults to {@code 8192}.
+     */
+    public static final Option<Integer> MAX_BUFFERED_BODY_SIZE = Option.simple(HttpClientOptions.class, "MAX_BUFFERED_BODY_SIZE", Integer.class);
+}
@@ -211,6 +211,37 @@ final class HttpClientXmlParser {
         }
     }
 
+    private static HostPool.Strategy parseLoadBalancingElement(final ConfigurationXMLStreamReader reader) throws ConfigXMLParseException {
+        final int attributeCount = reader.getAttributeCount();
+        HostPool.Strategy value = null;
+        for (int i = 0; i < attributeCount; i++) {
+            switch (reader.getAttributeLocalName(i)) {
+                case "value": {
+                    final String name = reader.getAttributeValueResolved(i);
+                    value = HostPool.Strategy.forName(name);
+                    if (value == null) {
+                        throw HttpClientMessages.MESSAGES.invalidLoadBalancingStrategy(name);
+                    }
+                    break;
+                }
+                default: {
+                    throw reader.unexpectedAttribute(i);
+                }
+            }
+        }
+        if (value == null) {
+            throw reader.missingRequiredAttribute(null, "value");
+        }
+        switch (reader.nextTag()) {
+            case END_ELEMENT: {
+                return value;
+            }
+            default: {
+                throw reader.unexpectedElement();
+            }
+        }
+    }
+
     private static boolean parseBooleanElement(final ConfigurationXMLStreamReader reader) throws ConfigXMLParseException {
         final int attributeCount = reader.getAttributeCount();
         Boolean value = null;
@@ -299,6 +330,62 @@ final class HttpClientXmlParser {
                             builder.setMaxStreamsPerConnection(parseIntElement(reader));
                             break;
                         }
+                        case "min-idle-connections": {
+                            builder.setMinIdleConnections(parseIntElement(reader));
+                            break;
+                        }
+                        case "request-timeout": {
+                            builder.setRequestTimeout(parseLongElement(reader));
+                            break;
+                        }
+                        case "load-balancing": {
+                            builder.setLoadBalancing(parseLoadBalancingElement(reader));
+                            break;
+                        }
+                        case "dns-ttl": {
+                            builder.setDnsTtl(parseLongElement(reader));
+                            break;
+                        }
+                        case "adaptive-concurrency": {
+                            builder.setAdaptiveConcurrency(parseBooleanElement(reader));
+                            break;
+                        }
+                        case "hedge-percentile": {
+                            builder.setHedgePercentile(parseIntElement(reader));
+                            break;
+                        }
+                        case "hedge-budget": {
+                            builder.setHedgeBudget(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-pending-requests": {
+                            builder.setMaxPendingRequests(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-in-flight-bytes": {
+                            builder.setMaxInFlightBytes(parseLongElement(reader));
+                            break;
+                        }
+                        case "max-connection-age": {
+                            builder.setMaxConnectionAge(parseLongElement(reader));
+                            break;
+                        }
+                        case "read-ahead-buffers": {
+                            builder.setReadAheadBuffers(parseIntElement(reader));
+                            break;
+                        }
+                        case "write-behind-buffers": {
+                            builder.setWriteBehindBuffers(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-buffered-body-size": {
+                            builder.setMaxBufferedBodySize(parseIntElement(reader));
+                            break;
+                        }
+                        case "target-idle-timeout": {
+                            builder.setTargetIdleTimeout(parseLongElement(reader));
+                            break;
+                        }
                         case "eagerly-acquire-session": {
                             builder.setEagerlyAcquireSession(parseBooleanElement(reader));
                             break;
@@ -307,6 +394,10 @@ final class HttpClientXmlParser {
                             builder.setEnableHttp2(parseBooleanElement(reader));
                             break;
                         }
+                        case "h2c-prior-knowledge": {
+                            builder.setH2cPriorKnowledge(parseBooleanElement(reader));
+                            break;
+                        }
                         case "buffer-pool": {
                             builder.setBufferConfig(parseBufferConfig(reader));
                             break;
@@ -417,6 +508,58 @@ final class HttpClientXmlParser {
                             targetBuilder.setMaxStreamsPerConnection(parseIntElement(reader));
                             break;
                         }
+                        case "min-idle-connections": {
+                            targetBuilder.setMinIdleConnections(parseIntElement(reader));
+                            break;
+                        }
+                        case "request-timeout": {
+                            targetBuilder.setRequestTimeout(parseLongElement(reader));
+                            break;
+                        }
+                        case "load-balancing": {
+                            targetBuilder.setLoadBalancing(parseLoadBalancingElement(reader));
+                            break;
+                        }
+                        case "dns-ttl": {
+                            targetBuilder.setDnsTtl(parseLongElement(reader));
+                            break;
+                        }
+                        case "adaptive-concurrency": {
+                            targetBuilder.setAdaptiveConcurrency(parseBooleanElement(reader));
+                            break;
+                        }
+                        case "hedge-percentile": {
+                            targetBuilder.setHedgePercentile(parseIntElement(reader));
+                            break;
+                        }
+                        case "hedge-budget": {
+                            targetBuilder.setHedgeBudget(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-pending-requests": {
+                            targetBuilder.setMaxPendingRequests(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-in-flight-bytes": {
+                            targetBuilder.setMaxInFlightBytes(parseLongElement(reader));
+                            break;
+                        }
+                        case "max-connection-age": {
+                            targetBuilder.setMaxConnectionAge(parseLongElement(reader));
+                            break;
+                        }
+                        case "read-ahead-buffers": {
+                            targetBuilder.setReadAheadBuffers(parseIntElement(reader));
+                            break;
+                        }
+                        case "write-behind-buffers": {
+                            targetBuilder.setWriteBehindBuffers(parseIntElement(reader));
+                            break;
+                        }
+                        case "max-buffered-body-size": {
+                            targetBuilder.setMaxBufferedBodySize(parseIntElement(reader));
+                            break;
+                        }
                         case "eagerly-acquire-session": {
                             targetBuilder.setEagerlyAcquireSession(parseBooleanElement(reader));
                             break;
@@ -425,6 +568,10 @@ final class HttpClientXmlParser {
                             targetBuilder.setEnableHttp2(parseBooleanElement(reader));
                             break;
                         }
+                        case "h2c-prior-knowledge": {
+                            targetBuilder.setH2cPriorKnowledge(parseBooleanElement(reader));
+                            break;
+                        }
                         case "bind-address": {
                             targetBuilder.setBindAddress(parseBind(reader));
                             break;
@@ -18,93 +18,471 @@
 
 package org.wildfly.httpclient.common;
 
+import static java.security.AccessController.doPrivileged;
+import static org.xnio.Bits.allAreClear;
+import static org.xnio.Bits.anyAreSet;
+
 import io.undertow.UndertowOptions;
 import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.ClientExchange;
 import io.undertow.client.ClientRequest;
+import io.undertow.client.ClientResponse;
 import io.undertow.client.UndertowClient;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
 import org.xnio.ChannelListener;
 import org.xnio.IoFuture;
 import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
 import org.xnio.XnioWorker;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CancellationException;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
 
 /**
  * A pool of HTTP connections for a given host pool.
+ * <p>
+ * The connections that can take more invocations are kept in one shard per IO thread of the worker, each connection
+ * in the shard of the IO thread it runs on. Invocations look for a connection in the shard of the calling thread
+ * first, most recently used connections first, and only steal connections from other shards when their own shard
+ * runs dry. Acquiring and releasing a connection therefore does not contend on a single queue.
+ * <p>
+ * Requests that ignore the connection limits, such as cancellations and transaction completions, wait in a queue of
+ * their own that is served first. They are not held back by the adaptive concurrency limit, and can open a few
+ * connections beyond {@code maxConnections}, so that they complete even when the pool is flooded with invocations.
+ * These extra connections are closed once they are done.
+ * <p>
+ * The pool tracks the latency of each latency class of requests, typically the method they invoke. The requests of a
+ * class that is historically slow can only hold half of the connections (or of the streams, once connections are
+ * multiplexed). Beyond that, they wait in a queue of their own, so that short requests do not queue behind them.
+ * <p>
+ * Requests are rejected right away, rather than queued, when {@link HttpClientOptions#MAX_PENDING_REQUESTS} requests
+ * are already waiting for a connection, or when the request and response streams of the invocations in flight hold
+ * {@link HttpClientOptions#MAX_IN_FLIGHT_BYTES} bytes of pooled buffers. Requests that ignore the connection limits
+ * are always admitted.
+ * <p>
+ * Idle connections can be closed by the server or by a middlebox, such as a load balancer with a shorter idle timeout
+ * than the pool. Idle multiplexed connections are kept alive with HTTP/2 pings, and closed when a ping is not
+ * acknowledged. Connections found closed are skipped when handing out connections. An invocation whose request could
+ * not be sent on a reused connection is retried on a new connection by {@link HttpTargetContext}, as long as the
+ * {@link #tryRetry() retry budget} allows it, and the connections that were idle for as long are closed.
+ * <p>
+ * With {@link HttpClientOptions#MAX_CONNECTION_AGE}, connections stop taking new invocations after that time, minus a
+ * random jitter, and are closed once their current invocations are done. Connections pinned to the node a load
+ * balancer first routed them to are thereby replaced over time, and new nodes get their share of the connections.
+ * <p>
+ * The pool remembers the protocol the connections to its target negotiated for a while. Once a {@code http} target
+ * upgraded a connection to HTTP/2, the next connections start HTTP/2 right away, as they do with
+ * {@link HttpClientOptions#H2C_PRIOR_KNOWLEDGE}. Once a {@code https} target negotiated HTTP/1.1, the next connections
+ * do not offer HTTP/2 anymore.
  *
  * @author Stuart Douglas
  * @author Flavia Rainone
  */
 public class HttpConnectionPool implements Closeable {
 
+    private static final long MAINTENANCE_INTERVAL = 1000;
+    // weight of the last maintenance interval in the moving average of the arrival rate
+    private static final double ARRIVAL_RATE_WEIGHT = 0.3;
+    // the time in milliseconds after which a connection attempt to an address of the other family is started (RFC 8305)
+    private static final long CONNECTION_ATTEMPT_DELAY = 250;
+    // the time in milliseconds an ejected address has to answer a probe
+    private static final long PROBE_TIMEOUT = 5000;
+    // the path probed to check if an ejected address answers again, relative to the path of the target
+    static final String PROBE_PATH = "/common/v1/affinity";
+    // the time in milliseconds after which an idle multiplexed connection is pinged, below the idle timeouts of the
+    // usual load balancers
+    private static final long KEEP_ALIVE_INTERVAL = 30000;
+    // the time in milliseconds a ping has to be acknowledged
+    private static final long PING_TIMEOUT = 5000;
+    // the time in milliseconds the protocol negotiated with the target is remembered
+    private static final long PROTOCOL_CACHE_TIME = TimeUnit.MINUTES.toMillis(10);
+
+    private static final AtomicIntegerFieldUpdater<ClientConnectionHolder> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(ClientConnectionHolder.class, "state");
+    private static final AtomicIntegerFieldUpdater<RequestHolder> completeUpdater = AtomicIntegerFieldUpdater.newUpdater(RequestHolder.class, "complete");
+
+    // the listeners registered as services, notified by all the pools
+    private static final List<HttpConnectionPoolListener> serviceListeners;
+
+    static {
+        final List<HttpConnectionPoolListener> listeners = new ArrayList<>();
+        final ServiceLoader<HttpConnectionPoolListener> sl = doPrivileged((PrivilegedAction<ServiceLoader<HttpConnectionPoolListener>>)
+                () -> ServiceLoader.load(HttpConnectionPoolListener.class, HttpConnectionPool.class.getClassLoader()));
+        for (HttpConnectionPoolListener listener : sl) {
+            listeners.add(listener);
+        }
+        serviceListeners = listeners;
+    }
+
     private final int maxConnections;
     private final int maxStreamsPerConnection;
     private final XnioWorker worker;
     private final ByteBufferPool byteBufferPool;
     private final OptionMap options;
+    // the options of the connections to a target that negotiated HTTP/1.1, which do not offer HTTP/2
+    private final OptionMap http11Options;
+    // the connections to a http target start HTTP/2 right away
+    private final boolean h2cPriorKnowledge;
+    // the protocol the last connections to the target negotiated, null if unknown
+    private volatile NegotiatedProtocol negotiatedProtocol;
     private final HostPool hostPool;
     private final long connectionIdleTimeout;
+    private final int minIdleConnections;
+    private final long requestTimeout;
+    // limits the concurrent invocations below what the connections allow, null if the limit is not adaptive
+    private final AdaptiveConcurrencyLimiter limiter;
 
-    private final Map<Object, ConcurrentLinkedDeque<ClientConnectionHolder>> connections = new ConcurrentHashMap<>();
+    // connections that can take more invocations, per IO thread
+    private final Shard[] shards;
     private final ConcurrentLinkedDeque<RequestHolder> pendingConnectionRequests = new ConcurrentLinkedDeque<>();
-    private final AtomicInteger activeInvocationCount = new AtomicInteger();
+    // requests that ignore the connection limits, served before the other pending requests
+    private final ConcurrentLinkedDeque<RequestHolder> priorityConnectionRequests = new ConcurrentLinkedDeque<>();
+    // connections that only requests ignoring the connection limits can open, beyond maxConnections
+    private final int reservedConnections;
+    // requests of slow latency classes waiting for the slow invocations in flight to go below their share
+    private final ConcurrentLinkedDeque<RequestHolder> slowConnectionRequests = new ConcurrentLinkedDeque<>();
+    private final LatencyClassTracker latencyClasses = new LatencyClassTracker();
+    // invocations of slow latency classes in flight
+    private final AtomicInteger slowInFlight = new AtomicInteger();
+    // indicates the connections of this pool are multiplexed
+    private volatile boolean multiplexed;
+    // the maximum number of requests waiting for a connection, 0 for no limit
+    private final int maxPendingRequests;
+    // the maximum time in milliseconds a connection takes new invocations, 0 for no limit
+    private final long maxConnectionAge;
+    // the maximum number of buffers of a response read ahead of its reader
+    private final int readAheadBuffers;
+    // the maximum number of full buffers of a request queued behind its writer
+    private final int writeBehindBuffers;
+    // the maximum size of a request body sent with a content length
+    private final int maxBufferedBodySize;
+    // requests that did not get a connection, an error or a timeout yet
+    private final AtomicInteger waitingRequests = new AtomicInteger();
+    private final InFlightByteBudget byteBudget;
+    private final RetryBudget retryBudget = new RetryBudget();
+    // number of connections that are either open or being opened, never above maxConnections
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    // number of connections being opened
+    private final AtomicInteger connectingCount = new AtomicInteger();
+    // number of connection requests since the last maintenance run
+    private final AtomicInteger arrivals = new AtomicInteger();
     private final Map<SSLContext, UndertowXnioSsl> sslInstances = new ConcurrentHashMap<>();
 
     private final Object NULL_SSL_CONTEXT = new Object();
     private final PoolAuthenticationContext poolAuthenticationContext = new PoolAuthenticationContext();
+    private final HttpConnectionPoolStatistics statistics = new HttpConnectionPoolStatistics(this);
+    private final List<HttpConnectionPoolListener> listeners = new CopyOnWriteArrayList<>(serviceListeners);
+    private final ObjectName objectName;
+    // the key of the SSL context used to open connections ahead of demand and probe connections, null until the first
+    // https request
+    private volatile Object warmUpSSLContext;
+    private volatile XnioExecutor.Key maintenanceKey;
+    // the last time a connection was requested or an invocation ended, in nanoseconds
+    private volatile long lastUsed = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * Keeps {@code minIdleConnections} idle connections open, and opens extra connections ahead of demand when the
+     * rate of connection requests is climbing. Runs in an IO thread.
+     */
+    private final Runnable maintenanceTask = new Runnable() {
+        private double arrivalRate = -1;
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            final int arrived = arrivals.getAndSet(0);
+            final double previousRate = arrivalRate;
+            arrivalRate = previousRate < 0 ? arrived : previousRate + (arrived - previousRate) * ARRIVAL_RATE_WEIGHT;
+            final Object key = warmUpSSLContext;
+            if (key != null) {
+                final SSLContext sslContext = key == NULL_SSL_CONTEXT ? null : (SSLContext) key;
+                final int idle = countIdleConnections(sslContext) + connectingCount.get();
+                final int busy = Math.max(0, connectionCount.get() - idle);
+                int wanted = minIdleConnections - idle;
+                if (previousRate > 0 && arrived > previousRate) {
+                    // with a steady latency, the number of busy connections grows with the arrival rate
+                    wanted = Math.max(wanted, (int) Math.ceil(busy * arrived / previousRate) - busy - idle);
+                }
+                for (int i = 0; i < wanted && reserveConnection(); ++i) {
+                    openConnection(null, sslContext);
+                }
+            }
+            final XnioExecutor.Key next = worker.getIoThread().executeAfter(this, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+            maintenanceKey = next;
+            if (closed) {
+                // close() ran meanwhile, and may have removed the previous key only
+                next.remove();
+            }
+        }
+    };
 
     public HttpConnectionPool(int maxConnections, int maxStreamsPerConnection, XnioWorker worker, ByteBufferPool byteBufferPool, OptionMap options, HostPool hostPool, long connectionIdleTimeout) {
         this.maxConnections = maxConnections;
         this.maxStreamsPerConnection = maxStreamsPerConnection;
+        this.reservedConnections = Math.max(1, maxConnections / 10);
         this.worker = worker;
         this.byteBufferPool = byteBufferPool;
         this.hostPool = hostPool;
         this.connectionIdleTimeout = connectionIdleTimeout;
+        this.shards = new Shard[Math.max(1, worker.getIoThreadCount())];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard();
+        }
         final String hostname = hostPool.getUri().getHost();
-        if ("https".equals(hostPool.getUri().getScheme()) && hostname != null) {
-            try {
-                final InetAddress address = hostPool.getAddress().getAddress();
-                if (address.toString().charAt(0) != '/') {
-                    // address not starting with / means hostname used, add the SNI option
-                    options = OptionMap.builder().addAll(options).set(UndertowOptions.SSL_SNI_HOSTNAME, hostname).getMap();
-                }
-            } catch (UnknownHostException e) {
-                // if exception the URI contains a hostname
-                options = OptionMap.builder().addAll(options).set(UndertowOptions.SSL_SNI_HOSTNAME, hostname).getMap();
-            }
+        if ("https".equals(hostPool.getUri().getScheme()) && hostname != null && !isAddressLiteral(hostname)) {
+            // the URI contains a hostname, add the SNI option
+            options = OptionMap.builder().addAll(options).set(UndertowOptions.SSL_SNI_HOSTNAME, hostname).getMap();
         }
         this.options = options;
+        this.http11Options = OptionMap.builder().addAll(options).set(UndertowOptions.ENABLE_HTTP2, false).getMap();
+        this.h2cPriorKnowledge = options.get(HttpClientOptions.H2C_PRIOR_KNOWLEDGE, false);
+        this.minIdleConnections = Math.min(options.get(HttpClientOptions.MIN_IDLE_CONNECTIONS, 0), maxConnections);
+        this.requestTimeout = options.get(HttpClientOptions.REQUEST_TIMEOUT, 0L);
+        this.maxPendingRequests = options.get(HttpClientOptions.MAX_PENDING_REQUESTS, 0);
+        this.byteBudget = new InFlightByteBudget(options.get(HttpClientOptions.MAX_IN_FLIGHT_BYTES, 0L));
+        this.maxConnectionAge = options.get(HttpClientOptions.MAX_CONNECTION_AGE, 0L);
+        this.readAheadBuffers = Math.max(1, options.get(HttpClientOptions.READ_AHEAD_BUFFERS, 4));
+        this.writeBehindBuffers = Math.max(1, options.get(HttpClientOptions.WRITE_BEHIND_BUFFERS, 2));
+        this.maxBufferedBodySize = Math.max(1, options.get(HttpClientOptions.MAX_BUFFERED_BODY_SIZE, 8192));
+        this.limiter = options.get(HttpClientOptions.ADAPTIVE_CONCURRENCY, false) ? new AdaptiveConcurrencyLimiter(maxConnections, 1, maxConnections * maxStreamsPerConnection) : null;
+        if (!"https".equals(hostPool.getUri().getScheme())) {
+            warmUpSSLContext = NULL_SSL_CONTEXT;
+        }
+        if (minIdleConnections > 0) {
+            maintenanceKey = worker.getIoThread().executeAfter(maintenanceTask, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        hostPool.setProber(this::probe);
+        this.objectName = registerMBean();
+    }
+
+    private ObjectName registerMBean() {
+        try {
+            final ObjectName name = new ObjectName("org.wildfly.httpclient:type=HttpConnectionPool,uri=" + ObjectName.quote(hostPool.getUri().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+            return name;
+        } catch (JMException | SecurityException e) {
+            // another pool is registered for the same URI, or management is not available
+            HttpClientMessages.MESSAGES.debugf(e, "Could not register the connection pool MBean of %s", hostPool.getUri());
+            return null;
+        }
     }
 
     public void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext sslContext) {
-        pendingConnectionRequests.add(new RequestHolder(connectionListener, errorListener, ignoreConnectionLimits, sslContext));
+        getConnection(connectionListener, errorListener, ignoreConnectionLimits, sslContext, 0);
+    }
+
+    /**
+     * Requests a connection, failing with a timeout if none can be handed to the request within {@code timeout}.
+     * An expired request leaves the queue of pending requests right away, and a connection that is opened for it is
+     * added to the pool.
+     *
+     * @param connectionListener     notified with the connection
+     * @param errorListener          notified if no connection could be obtained
+     * @param ignoreConnectionLimits if the request is served before the other pending requests, and can use a
+     *                               connection beyond the configured limits
+     * @param sslContext             the SSL context of the connection
+     * @param timeout                the timeout in milliseconds, or {@code 0} for no timeout
+     */
+    public void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext sslContext, long timeout) {
+        getConnection(connectionListener, errorListener, ignoreConnectionLimits, sslContext, timeout, null);
+    }
+
+    /**
+     * Requests a connection for an invocation of a given latency class. The invocations of a class that is
+     * historically slow can only hold a share of the connections.
+     *
+     * @param connectionListener     notified with the connection
+     * @param errorListener          notified if no connection could be obtained
+     * @param ignoreConnectionLimits if the request is served before the other pending requests, and can use a
+     *                               connection beyond the configured limits
+     * @param sslContext             the SSL context of the connection
+     * @param timeout                the timeout in milliseconds, or {@code 0} for no timeout
+     * @param latencyClass           the latency class of the invocation, typically the method it invokes, or
+     *                               {@code null} if the invocation is not classified
+     */
+    public void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext sslContext, long timeout, String latencyClass) {
+        getConnection(connectionListener, errorListener, ignoreConnectionLimits, sslContext, timeout, latencyClass, null);
+    }
+
+    /**
+     * Requests a connection to another address than {@code excludedAddress}, such as the second attempt of a hedged
+     * request. The request gets a pooled connection to another address if there is one, or a new connection to
+     * another address of the host pool. If the pool is full, it falls back to any connection.
+     *
+     * @param connectionListener     notified with the connection
+     * @param errorListener          notified if no connection could be obtained
+     * @param ignoreConnectionLimits if the request is served before the other pending requests, and can use a
+     *                               connection beyond the configured limits
+     * @param sslContext             the SSL context of the connection
+     * @param timeout                the timeout in milliseconds, or {@code 0} for no timeout
+     * @param latencyClass           the latency class of the invocation, or {@code null}
+     * @param excludedAddress        the address to avoid, or {@code null}
+     */
+    void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext sslContext, long timeout, String latencyClass, InetAddress excludedAddress) {
+        if (closed) {
+            errorListener.error(HttpClientMessages.MESSAGES.connectionPoolClosed(hostPool.getUri()));
+            return;
+        }
+        lastUsed = System.nanoTime();
+        if (!ignoreConnectionLimits) {
+            if (maxPendingRequests > 0 && waitingRequests.get() >= maxPendingRequests) {
+                statistics.requestRejected();
+                errorListener.error(HttpClientMessages.MESSAGES.tooManyPendingRequests(hostPool.getUri(), maxPendingRequests));
+                return;
+            }
+            if (byteBudget.isExhausted()) {
+                statistics.requestRejected();
+                errorListener.error(HttpClientMessages.MESSAGES.inFlightBytesExceeded(hostPool.getUri(), byteBudget.getMaxBytes()));
+                return;
+            }
+        }
+        // only admitted requests earn retries
+        retryBudget.requestStarted();
+        waitingRequests.incrementAndGet();
+        final RequestHolder request = new RequestHolder(connectionListener, errorListener, ignoreConnectionLimits, sslContext, latencyClass, excludedAddress);
+        arrivals.incrementAndGet();
+        if (warmUpSSLContext == null) {
+            warmUpSSLContext = sslContext == null ? NULL_SSL_CONTEXT : sslContext;
+        }
+        if (tryAcquireOwnShard(request)) {
+            return;
+        }
+        if (timeout > 0) {
+            request.timeout = HashedWheelTimer.INSTANCE.schedule(() -> {
+                if (request.complete()) {
+                    if (!getQueue(request).remove(request)) {
+                        slowConnectionRequests.remove(request);
+                    }
+                    request.errorListener.error(HttpClientMessages.MESSAGES.requestTimedOut(hostPool.getUri(), timeout));
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        getQueue(request).add(request);
+        if (closed) {
+            // raced with close()
+            failPendingRequests();
+            return;
+        }
         runPending();
     }
 
+    /**
+     * Hands {@code request} a connection of the shard of the calling thread, without going through the queues of
+     * pending requests, if no other request is waiting. Requests that need a permit of the slow latency classes, that
+     * ignore the connection limits or that avoid an address always go through the queues.
+     *
+     * @return {@code true} if the request got a connection
+     */
+    private boolean tryAcquireOwnShard(RequestHolder request) {
+        if (request.ignoreConnectionLimits || request.excludedAddress != null || hasPendingRequests() || latencyClasses.isSlow(request.latencyClass)) {
+            return false;
+        }
+        final ConcurrentLinkedDeque<ClientConnectionHolder> queue = shards[getCurrentShardIndex()].getAvailableConnections(getSSLContextKey(getSSLContext(request)));
+        if (queue.isEmpty() || limiter != null && !limiter.tryAcquire()) {
+            return false;
+        }
+        ClientConnectionHolder connection;
+        while ((connection = queue.pollFirst()) != null) {
+            if (connection.tryAcquire()) {
+                handOff(request, connection);
+                return true;
+            }
+        }
+        if (limiter != null) {
+            limiter.cancel();
+        }
+        return false;
+    }
+
+    private boolean hasPendingRequests() {
+        return !priorityConnectionRequests.isEmpty() || !slowConnectionRequests.isEmpty() || !pendingConnectionRequests.isEmpty();
+    }
+
+    /**
+     * Returns the buffer pool the request and response streams of an invocation allocate their buffers from, which
+     * counts these buffers against the in-flight byte budget of this pool.
+     *
+     * @param bufferPool the buffer pool of the connection of the invocation
+     * @return the buffer pool to use
+     */
+    ByteBufferPool getStreamBufferPool(ByteBufferPool bufferPool) {
+        return byteBudget.track(bufferPool);
+    }
+
+    int getReadAheadBuffers() {
+        return readAheadBuffers;
+    }
+
+    int getWriteBehindBuffers() {
+        return writeBehindBuffers;
+    }
+
+    int getMaxBufferedBodySize() {
+        return maxBufferedBodySize;
+    }
+
+    long getInFlightBytes() {
+        return byteBudget.getInFlightBytes();
+    }
+
+    /**
+     * Spends the budget of a request retried on a new connection, because the connection it was given turned out to
+     * be stale.
+     *
+     * @return {@code false} if the retry budget is exhausted and the request must fail
+     */
+    boolean tryRetry() {
+        if (retryBudget.tryRetry()) {
+            statistics.requestRetried();
+            return true;
+        }
+        return false;
+    }
+
+    private ConcurrentLinkedDeque<RequestHolder> getQueue(RequestHolder request) {
+        return request.ignoreConnectionLimits ? priorityConnectionRequests : pendingConnectionRequests;
+    }
+
     public void returnConnection(ClientConnectionHolder connection) {
-        activeInvocationCount.decrementAndGet();
         if (connection.getConnection().isOpen()) {
-            connections.get(connection.sslContext == null ? NULL_SSL_CONTEXT : connection.sslContext).add(connection);
+            connection.shard.getAvailableConnections(getSSLContextKey(connection.sslContext)).addFirst(connection);
+        }
+        // a request queued after this check finds the connection when it runs the pending requests itself
+        if (hasPendingRequests()) {
+            runPending();
         }
-        runPending();
     }
 
     protected ClientConnectionHolder createClientConnectionHolder(ClientConnection connection, URI uri, SSLContext sslContext) {
@@ -115,94 +493,819 @@ public class HttpConnectionPool implements Closeable {
         return Protocol.LATEST;
     }
 
+    /**
+     * Returns the default request timeout of the target of this pool.
+     *
+     * @return the timeout in milliseconds, or {@code 0} for no timeout
+     */
+    long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    URI getUri() {
+        return hostPool.getUri();
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    OptionMap getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the current limit of concurrent invocations.
+     *
+     * @return the limit, or {@code -1} if the limit is not adaptive
+     */
+    int getConcurrencyLimit() {
+        return limiter == null ? -1 : limiter.getLimit();
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    int getConnectingCount() {
+        return connectingCount.get();
+    }
+
+    int getPendingRequestCount() {
+        return pendingConnectionRequests.size() + priorityConnectionRequests.size() + slowConnectionRequests.size();
+    }
+
+    /**
+     * Indicates if this pool has been unused for some time: no invocation in progress, no request waiting for a
+     * connection, and no connection requested during that time.
+     *
+     * @param time the time
+     * @param unit the unit of the time
+     * @return {@code true} if this pool is unused
+     */
+    boolean isUnused(long time, TimeUnit unit) {
+        return System.nanoTime() - lastUsed >= unit.toNanos(time) && !hasPendingRequests() && statistics.getActiveInvocations() == 0;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int getIdleConnectionCount() {
+        int idle = 0;
+        for (Shard shard : shards) {
+            for (ConcurrentLinkedDeque<ClientConnectionHolder> queue : shard.connections.values()) {
+                for (ClientConnectionHolder connection : queue) {
+                    if (connection.isIdle()) {
+                        idle++;
+                    }
+                }
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Returns the statistics of this pool.
+     *
+     * @return the statistics of this pool
+     */
+    public HttpConnectionPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Adds a listener that is notified of the events of this pool.
+     *
+     * @param listener the listener
+     */
+    public void addListener(HttpConnectionPoolListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener previously added with {@link #addListener(HttpConnectionPoolListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(HttpConnectionPoolListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Hands a connection acquired with {@link ClientConnectionHolder#tryAcquire()} to {@code request}, or releases it
+     * if the request timed out in the meantime.
+     */
+    private void handOff(RequestHolder request, ClientConnectionHolder connection) {
+        if (!request.complete()) {
+            connection.releaseUnused(request);
+            return;
+        }
+        final ConnectionHandle handle = connection.createHandle(request);
+        final long waitNanos = System.nanoTime() - request.created;
+        statistics.connectionAcquired(waitNanos);
+        notifyListeners(listener -> listener.connectionAcquired(hostPool.getUri(), waitNanos));
+        request.connectionListener.done(handle);
+    }
+
+    /**
+     * Notifies the listeners of an event. A listener that fails is only logged, so that it cannot break the
+     * bookkeeping of the pool that notifies it.
+     */
+    private void notifyListeners(Consumer<HttpConnectionPoolListener> event) {
+        for (HttpConnectionPoolListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                HttpClientMessages.MESSAGES.debugf(e, "Connection pool listener %s of %s failed", listener, hostPool.getUri());
+            }
+        }
+    }
+
+    private Object getSSLContextKey(SSLContext sslContext) {
+        return sslContext == null ? NULL_SSL_CONTEXT : sslContext;
+    }
+
+    /**
+     * Returns the index of the shard of the calling thread. IO threads use their own shard, other threads are spread
+     * over the shards by thread id, so that a given thread keeps using the same shard.
+     */
+    private int getCurrentShardIndex() {
+        final Thread thread = Thread.currentThread();
+        final long index = thread instanceof XnioIoThread ? ((XnioIoThread) thread).getNumber() : thread.getId();
+        return (int) Math.floorMod(index, (long) shards.length);
+    }
+
+    private Shard getShard(XnioIoThread ioThread) {
+        return shards[Math.floorMod(ioThread.getNumber(), shards.length)];
+    }
+
+    private SSLContext getSSLContext(RequestHolder request) {
+        return "https".equals(hostPool.getUri().getScheme()) ? request.context : null;
+    }
+
     private void runPending() {
+        for (; ; ) {
+            ConcurrentLinkedDeque<RequestHolder> queue = priorityConnectionRequests;
+            RequestHolder next = queue.poll();
+            if (next == null && !slowConnectionRequests.isEmpty() && slowInFlight.get() < getSlowLimit()) {
+                queue = slowConnectionRequests;
+                next = queue.poll();
+            }
+            if (next == null) {
+                queue = pendingConnectionRequests;
+                next = queue.poll();
+                if (next == null) {
+                    return;
+                }
+            }
+            if (next.isComplete()) {
+                // timed out while queued
+                continue;
+            }
+            if (!next.ignoreConnectionLimits && latencyClasses.isSlow(next.latencyClass)) {
+                if (!tryAcquireSlow()) {
+                    // let the short requests behind it go first
+                    if (queue == slowConnectionRequests) {
+                        queue.addFirst(next);
+                    } else {
+                        slowConnectionRequests.add(next);
+                    }
+                    continue;
+                }
+                next.slow = true;
+            }
+            if (limiter != null) {
+                if (next.ignoreConnectionLimits) {
+                    limiter.acquire();
+                } else if (!limiter.tryAcquire()) {
+                    // the request waits for an invocation to complete
+                    releaseSlow(next);
+                    queue.addFirst(next);
+                    if (!limiter.hasCapacity()) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            if (!dispatch(next)) {
+                cancelPermits(next);
+                // no connection can take the request right now, put it back at the head of the queue
+                queue.addFirst(next);
+                if (!hasCapacity(next)) {
+                    // any connection released or closed from now on will find the request queued
+                    return;
+                }
+            }
+        }
+    }
 
-        int count;
+    /**
+     * Returns the number of invocations of slow latency classes that can be in flight at once: half of the
+     * connections, or half of the streams if the connections are multiplexed.
+     */
+    private int getSlowLimit() {
+        return Math.max(1, (multiplexed ? maxConnections * maxStreamsPerConnection : maxConnections) / 2);
+    }
+
+    private boolean tryAcquireSlow() {
+        final int limit = getSlowLimit();
+        int current;
         do {
-            count = activeInvocationCount.get();
-            if (count == maxConnections) {
-                return;
+            current = slowInFlight.get();
+            if (current >= limit) {
+                return false;
             }
-        } while (!activeInvocationCount.compareAndSet(count, count + 1));
-        RequestHolder next = pendingConnectionRequests.poll();
-        if (next == null) {
-            activeInvocationCount.decrementAndGet();
-            return;
+        } while (!slowInFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void releaseSlow(RequestHolder request) {
+        if (request.slow) {
+            request.slow = false;
+            slowInFlight.decrementAndGet();
         }
-        SSLContext sslContext = null;
-        UndertowXnioSsl ssl = null;
-        if (hostPool.getUri().getScheme().equals("https")) {
-            sslContext = next.context;
-            if (sslContext != null) {
-                ssl = sslInstances.get(sslContext);
-                if (ssl == null) {
-                    sslInstances.put(sslContext, ssl = new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, sslContext));
+    }
+
+    /**
+     * Gives back the permits taken by a request whose invocation never started.
+     */
+    private void cancelPermits(RequestHolder request) {
+        if (limiter != null) {
+            limiter.cancel();
+        }
+        releaseSlow(request);
+    }
+
+    private boolean hasCapacity(RequestHolder request) {
+        if (connectionCount.get() < getConnectionLimit(request)) {
+            return true;
+        }
+        final Object key = getSSLContextKey(getSSLContext(request));
+        for (Shard shard : shards) {
+            if (!shard.getAvailableConnections(key).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands {@code next} a connection that can take one more invocation, or starts opening a new connection for it
+     * if the pool is not full yet. A request that avoids an address only gets a connection to that address if the
+     * pool is full.
+     *
+     * @param next the pending request
+     * @return {@code true} if the request was dispatched, {@code false} if it has to wait for a connection
+     */
+    private boolean dispatch(RequestHolder next) {
+        final SSLContext sslContext = getSSLContext(next);
+        final Object key = getSSLContextKey(sslContext);
+        final int current = getCurrentShardIndex();
+        final InetAddress excluded = next.excludedAddress;
+        if (excluded != null) {
+            for (int i = 0; i < shards.length; ++i) {
+                final ConcurrentLinkedDeque<ClientConnectionHolder> queue = shards[(current + i) % shards.length].getAvailableConnections(key);
+                for (ClientConnectionHolder existingConnection : queue) {
+                    // removing the connection from the queue takes it, as polling it does
+                    if (!excluded.equals(existingConnection.getAddress()) && queue.removeFirstOccurrence(existingConnection) && existingConnection.tryAcquire()) {
+                        handOff(next, existingConnection);
+                        return true;
+                    }
                 }
             }
+            if (reserveConnection(getConnectionLimit(next))) {
+                openConnection(next, sslContext);
+                return true;
+            }
         }
-        Object key = sslContext == null ? NULL_SSL_CONTEXT : sslContext;
-        ConcurrentLinkedDeque<ClientConnectionHolder> queue = connections.get(key);
-        if (queue == null) {
-            connections.putIfAbsent(key, new ConcurrentLinkedDeque<>());
-            queue = connections.get(key);
+        for (int i = 0; i < shards.length; ++i) {
+            final ConcurrentLinkedDeque<ClientConnectionHolder> queue = shards[(current + i) % shards.length].getAvailableConnections(key);
+            for (; ; ) {
+                // the own shard is used as a stack, connections are stolen from the other end of the other shards
+                ClientConnectionHolder existingConnection = i == 0 ? queue.pollFirst() : queue.pollLast();
+                if (existingConnection == null) {
+                    break;
+                }
+                if (existingConnection.tryAcquire()) {
+                    handOff(next, existingConnection);
+                    return true;
+                }
+            }
         }
-        for (; ; ) {
-            ClientConnectionHolder existingConnection = queue.poll();
-            if (existingConnection == null) {
-                break;
+
+        if (!reserveConnection(getConnectionLimit(next))) {
+            closeIdleConnection(sslContext);
+            return false;
+        }
+        openConnection(next, sslContext);
+        return true;
+    }
+
+    private int getConnectionLimit(RequestHolder request) {
+        return request.ignoreConnectionLimits ? maxConnections + reservedConnections : maxConnections;
+    }
+
+    /**
+     * Reserves the slot of a new connection in the pool.
+     *
+     * @return {@code true} if the pool was not full
+     */
+    private boolean reserveConnection() {
+        return reserveConnection(maxConnections);
+    }
+
+    /**
+     * Reserves the slot of a new connection in the pool, up to {@code limit} connections.
+     *
+     * @return {@code true} if the pool had less than {@code limit} connections
+     */
+    private boolean reserveConnection(int limit) {
+        int count;
+        do {
+            count = connectionCount.get();
+            if (count >= limit) {
+                return false;
             }
-            if(!existingConnection.connection.isOpen()) {
-                continue;
+        } while (!connectionCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Indicates if the pool has more connections than {@code maxConnections}, because of requests that ignored the
+     * connection limits, and no more of these requests are waiting. A connection released then is closed.
+     */
+    private boolean isOverLimit() {
+        return connectionCount.get() > maxConnections && priorityConnectionRequests.isEmpty();
+    }
+
+    private int countIdleConnections(SSLContext sslContext) {
+        final Object key = getSSLContextKey(sslContext);
+        int idle = 0;
+        for (Shard shard : shards) {
+            for (ClientConnectionHolder connection : shard.getAvailableConnections(key)) {
+                if (connection.isIdle()) {
+                    idle++;
+                }
             }
-            if (existingConnection.tryAcquire()) {
-                next.connectionListener.done(existingConnection);
-                return;
+        }
+        return idle;
+    }
+
+    /**
+     * Closes the idle connections that have been idle since {@code idleSince} or longer. A middlebox that closed an
+     * idle connection most likely closed these too.
+     *
+     * @param idleSince the time in nanoseconds the stale connection became idle
+     */
+    private void retireStaleConnections(long idleSince) {
+        for (Shard shard : shards) {
+            for (ConcurrentLinkedDeque<ClientConnectionHolder> queue : shard.connections.values()) {
+                for (ClientConnectionHolder connection : queue) {
+                    if (connection.isIdle() && connection.idleSince - idleSince <= 0) {
+                        connection.retire();
+                    }
+                }
             }
         }
+    }
 
-        HostPool.AddressResult hostPoolAddress = hostPool.getAddress();
-        InetAddress address;
+    /**
+     * Closes an idle connection that was opened with an SSL context other than {@code sslContext}, so that the slot
+     * it takes in the pool can be used by requests for {@code sslContext}.
+     *
+     * @param sslContext the SSL context of the request that is waiting for a connection
+     */
+    private void closeIdleConnection(SSLContext sslContext) {
+        final Object key = getSSLContextKey(sslContext);
+        for (Shard shard : shards) {
+            for (Map.Entry<Object, ConcurrentLinkedDeque<ClientConnectionHolder>> entry : shard.connections.entrySet()) {
+                if (entry.getKey() == key) {
+                    continue;
+                }
+                for (ClientConnectionHolder connection : entry.getValue()) {
+                    if (connection.tryClose()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection in a slot previously reserved with {@link #reserveConnection()}, without blocking the
+     * calling thread. The request is completed from the notifier of the connect future, which runs in the IO thread
+     * that finished the handshake, so several connections can be established at once, up to {@code maxConnections}.
+     *
+     * @param request    the request waiting for the connection, or {@code null} if the connection is opened ahead of
+     *                   demand and must be added to the pool as an idle connection
+     * @param sslContext the SSL context of the connection
+     */
+    private void openConnection(final RequestHolder request, final SSLContext sslContext) {
+        final CompletableFuture<?> resolution = hostPool.getResolution();
+        if (!resolution.isDone()) {
+            // the resolver thread opens the connection once the host name is resolved, or fails the request
+            resolution.whenComplete((addresses, failure) -> startConnectionRace(request, sslContext));
+            return;
+        }
+        startConnectionRace(request, sslContext);
+    }
+
+    private void startConnectionRace(final RequestHolder request, final SSLContext sslContext) {
+        UndertowXnioSsl ssl = null;
+        if (sslContext != null) {
+            ssl = sslInstances.get(sslContext);
+            if (ssl == null) {
+                sslInstances.put(sslContext, ssl = new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, sslContext));
+            }
+        }
+        final HostPool.AddressResult hostPoolAddress = request == null ? hostPool.getAddress() : hostPool.getAddress(request.excludedAddress);
         try {
-            address = hostPoolAddress.getAddress();
+            hostPoolAddress.getAddress();
         } catch (UnknownHostException e) {
-            next.errorListener.error(e);
+            connectionFailed(request, e);
             return;
         }
+        connectingCount.incrementAndGet();
+        new ConnectionRace(request, sslContext, ssl, hostPoolAddress).start();
+    }
 
-        // get a ClientConnection to the target and invoke the ConnectionListener (or FailureListener)
-        try {
-            final SSLContext context = sslContext;
-            ClientConnection connection = null;
-            URI uri = new URI(hostPoolAddress.getURI().getScheme(), hostPoolAddress.getURI().getUserInfo(), address.getHostAddress(), hostPoolAddress.getURI().getPort(), "/", null, null);
+    /**
+     * @return {@code true} if {@code host} is an IPv4 address, or an IPv6 address between brackets, as in a URI
+     */
+    private static boolean isAddressLiteral(String host) {
+        if (host.startsWith("[")) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); ++i) {
+            final char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            // get a ClientConnection asynchronously
-            IoFuture<ClientConnection> result = UndertowClient.getInstance().connect(uri, worker, ssl, byteBufferPool, options);
+    /**
+     * @param priorKnowledge {@code true} if a connection to a {@code http} target starts HTTP/2 right away
+     */
+    private static URI getConnectURI(HostPool.AddressResult hostPoolAddress, boolean priorKnowledge) throws UnknownHostException, URISyntaxException {
+        final InetAddress address = hostPoolAddress.getAddress();
+        final URI uri = hostPoolAddress.getURI();
+        if (priorKnowledge && "http".equals(uri.getScheme())) {
+            return new URI("h2c-prior", uri.getUserInfo(), address.getHostAddress(), uri.getPort() == -1 ? 80 : uri.getPort(), "/", null, null);
+        }
+        return new URI(uri.getScheme(), uri.getUserInfo(), address.getHostAddress(), uri.getPort(), "/", null, null);
+    }
 
+    /**
+     * @return {@code true} if the last connections to the target negotiated HTTP/2, {@code false} if they negotiated
+     * HTTP/1.1, or {@code null} if the protocol is unknown or was negotiated too long ago
+     */
+    private Boolean getNegotiatedHttp2() {
+        final NegotiatedProtocol protocol = negotiatedProtocol;
+        if (protocol == null || System.nanoTime() - protocol.expiresAt >= 0) {
+            return null;
+        }
+        return protocol.http2;
+    }
+
+    private void protocolNegotiated(boolean http2) {
+        negotiatedProtocol = new NegotiatedProtocol(http2);
+    }
+
+    /**
+     * Opens the connection of a reserved slot, racing the address families as in RFC 8305 (happy eyeballs). The
+     * attempt to the selected address starts first. If it has not completed after {@link #CONNECTION_ATTEMPT_DELAY},
+     * or as soon as it fails, an attempt to an address of the other family is started. The first connection
+     * established wins, and the other one is closed.
+     */
+    private final class ConnectionRace {
+        private final RequestHolder request;
+        private final SSLContext sslContext;
+        private final UndertowXnioSsl ssl;
+        private final HostPool.AddressResult primary;
+        private final long connectStart = System.nanoTime();
+        // the attempt that has not started yet, if any, guarded by this
+        private HostPool.AddressResult fallback;
+        // the attempts in progress, guarded by this
+        private int pending;
+        // indicates the race is decided, guarded by this
+        private boolean done;
+        private volatile HashedWheelTimer.Timeout fallbackTimeout;
+
+        ConnectionRace(RequestHolder request, SSLContext sslContext, UndertowXnioSsl ssl, HostPool.AddressResult primary) {
+            this.request = request;
+            this.sslContext = sslContext;
+            this.ssl = ssl;
+            this.primary = primary;
+            this.fallback = primary.getFallback();
+            this.pending = 1;
+        }
+
+        void start() {
+            if (fallback != null) {
+                fallbackTimeout = HashedWheelTimer.INSTANCE.schedule(this::startFallback, CONNECTION_ATTEMPT_DELAY, TimeUnit.MILLISECONDS);
+            }
+            connect(primary);
+        }
+
+        private void startFallback() {
+            final HostPool.AddressResult next;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                next = takeFallback();
+            }
+            if (next != null) {
+                connect(next);
+            }
+        }
+
+        private HostPool.AddressResult takeFallback() {
+            assert Thread.holdsLock(this);
+            final HostPool.AddressResult next = fallback;
+            if (next != null) {
+                fallback = null;
+                pending++;
+            }
+            return next;
+        }
+
+        private void connect(final HostPool.AddressResult hostPoolAddress) {
+            final Boolean http2 = getNegotiatedHttp2();
+            // the target upgraded a previous connection to HTTP/2, skip the upgrade
+            final boolean learnedPriorKnowledge = !h2cPriorKnowledge && Boolean.TRUE.equals(http2);
+            // the target negotiated HTTP/1.1 before, do not offer HTTP/2
+            final boolean http11 = Boolean.FALSE.equals(http2);
+            final URI uri;
             try {
-                connection = result.get();
-            } catch (IOException e) {
-                // we failed to get a ClientConnection, call the ErrorListener
-                hostPoolAddress.failed();
-                activeInvocationCount.decrementAndGet();
-                next.errorListener.error(e);
-            } catch (CancellationException e) {
-                // can't happen
+                uri = getConnectURI(hostPoolAddress, h2cPriorKnowledge || learnedPriorKnowledge);
+            } catch (UnknownHostException | URISyntaxException e) {
+                attemptFailed(e);
+                return;
             }
+            hostPoolAddress.connectionStarted();
+            final IoFuture<ClientConnection> result = UndertowClient.getInstance().connect(uri, worker, ssl, byteBufferPool, http11 ? http11Options : options);
+            result.addNotifier(new IoFuture.HandlingNotifier<ClientConnection, HostPool.AddressResult>() {
+                @Override
+                public void handleDone(ClientConnection connection, HostPool.AddressResult hostPoolAddress) {
+                    if (ssl != null && !http11 && options.get(UndertowOptions.ENABLE_HTTP2, false)) {
+                        // remember the outcome of ALPN
+                        protocolNegotiated(connection.isMultiplexingSupported());
+                    }
+                    connected(connection, hostPoolAddress);
+                }
+
+                @Override
+                public void handleFailed(IOException exception, HostPool.AddressResult hostPoolAddress) {
+                    if (learnedPriorKnowledge) {
+                        // the target may not speak HTTP/2 anymore, upgrade the next connections again
+                        negotiatedProtocol = null;
+                    }
+                    // we failed to get a ClientConnection, call the ErrorListener unless the other attempt succeeds
+                    hostPoolAddress.failed();
+                    attemptFailed(exception);
+                }
+
+                @Override
+                public void handleCancelled(HostPool.AddressResult hostPoolAddress) {
+                    hostPoolAddress.connectionAttemptDone();
+                    attemptFailed(HttpClientMessages.MESSAGES.connectionCancelled(uri));
+                }
+            }, hostPoolAddress);
+        }
 
+        private void attemptFailed(Exception exception) {
+            final HostPool.AddressResult next;
+            synchronized (this) {
+                pending--;
+                if (done) {
+                    return;
+                }
+                next = takeFallback();
+                if (next == null) {
+                    if (pending > 0) {
+                        // the other attempt may still succeed
+                        return;
+                    }
+                    done = true;
+                }
+            }
+            if (next != null) {
+                // no need to wait for the delay, the first attempt is over
+                connect(next);
+                return;
+            }
+            cancelFallbackTimeout();
+            connectingCount.decrementAndGet();
+            connectionFailed(request, exception);
+        }
+
+        private void connected(ClientConnection connection, HostPool.AddressResult hostPoolAddress) {
+            final boolean won;
+            synchronized (this) {
+                pending--;
+                won = !done;
+                done = true;
+                fallback = null;
+            }
+            hostPoolAddress.connected();
+            if (!won) {
+                // the other attempt was faster
+                IoUtils.safeClose(connection);
+                return;
+            }
+            cancelFallbackTimeout();
+            connectingCount.decrementAndGet();
+            final long connectNanos = System.nanoTime() - connectStart;
+            statistics.connectionCreated(connectNanos);
+            notifyListeners(listener -> listener.connectionCreated(hostPool.getUri(), connectNanos));
+            final ClientConnectionHolder clientConnectionHolder = createClientConnectionHolder(connection, hostPoolAddress.getURI(), sslContext);
+            clientConnectionHolder.setAddress(hostPoolAddress);
+            if (connection.isMultiplexingSupported()) {
+                multiplexed = true;
+            }
+            if (request == null || request.isComplete()) {
+                // opened ahead of demand, or the request timed out while connecting
+                if (request != null) {
+                    cancelPermits(request);
+                }
+                connection.getCloseSetter().set((ChannelListener<ClientConnection>) channel -> clientConnectionHolder.connectionClosed());
+                if (connection.isOpen()) {
+                    clientConnectionHolder.makeAvailable();
+                } else {
+                    clientConnectionHolder.connectionClosed();
+                }
+                return;
+            }
             // we now have a new ClientConnection, call the ConnectionListener
-            connection.getCloseSetter().set((ChannelListener<ClientConnection>) connections::remove);
-            ClientConnectionHolder clientConnectionHolder = createClientConnectionHolder(connection, hostPoolAddress.getURI(), context);
             clientConnectionHolder.tryAcquire(); // always succeeds
-            next.connectionListener.done(clientConnectionHolder);
+            connection.getCloseSetter().set((ChannelListener<ClientConnection>) channel -> clientConnectionHolder.connectionClosed());
+            if (!connection.isOpen()) {
+                clientConnectionHolder.connectionClosed();
+            }
+            handOff(request, clientConnectionHolder);
+            // a multiplexed connection can serve other pending requests right away
+            runPending();
+        }
 
+        private void cancelFallbackTimeout() {
+            final HashedWheelTimer.Timeout timeout = fallbackTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Probes an ejected address with a request to the affinity path of the target, on a connection opened for the
+     * probe only. Any response but a server error means the address answers again, even if the request is not
+     * authenticated.
+     */
+    private void probe(InetAddress address, Consumer<Boolean> callback) {
+        final Object key = warmUpSSLContext;
+        if (closed || key == null) {
+            // no SSL context to open the connection with yet, let the invocations tell
+            callback.accept(!closed);
+            return;
+        }
+        final URI target = hostPool.getUri();
+        final URI uri;
+        try {
+            uri = new URI(target.getScheme(), target.getUserInfo(), address.getHostAddress(), target.getPort(), "/", null, null);
         } catch (URISyntaxException e) {
-            next.errorListener.error(e);
+            callback.accept(false);
+            return;
+        }
+        UndertowXnioSsl ssl = null;
+        if (key != NULL_SSL_CONTEXT) {
+            ssl = sslInstances.computeIfAbsent((SSLContext) key, sslContext -> new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, sslContext));
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final HashedWheelTimer.Timeout timeout = HashedWheelTimer.INSTANCE.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                callback.accept(false);
+            }
+        }, PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+        final Consumer<Boolean> result = answered -> {
+            if (done.compareAndSet(false, true)) {
+                timeout.cancel();
+                callback.accept(answered);
+            }
+        };
+        final IoFuture<ClientConnection> future = UndertowClient.getInstance().connect(uri, worker, ssl, byteBufferPool, options);
+        future.addNotifier(new IoFuture.HandlingNotifier<ClientConnection, Object>() {
+            @Override
+            public void handleDone(ClientConnection connection, Object attachment) {
+                if (done.get()) {
+                    IoUtils.safeClose(connection);
+                    return;
+                }
+                final ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(target.getPath() + PROBE_PATH);
+                request.getRequestHeaders().put(Headers.HOST, target.getPort() == -1 ? target.getHost() : target.getHost() + ":" + target.getPort());
+                connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                    @Override
+                    public void completed(ClientExchange exchange) {
+                        exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                            @Override
+                            public void completed(ClientExchange exchange) {
+                                final ClientResponse response = exchange.getResponse();
+                                IoUtils.safeClose(connection);
+                                result.accept(response.getResponseCode() < StatusCodes.INTERNAL_SERVER_ERROR);
+                            }
+
+                            @Override
+                            public void failed(IOException e) {
+                                IoUtils.safeClose(connection);
+                                result.accept(false);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        IoUtils.safeClose(connection);
+                        result.accept(false);
+                    }
+                });
+            }
+
+            @Override
+            public void handleFailed(IOException exception, Object attachment) {
+                result.accept(false);
+            }
+
+            @Override
+            public void handleCancelled(Object attachment) {
+                result.accept(false);
+            }
+        }, null);
+    }
+
+    private void connectionFailed(RequestHolder request, Exception e) {
+        connectionCount.decrementAndGet();
+        if (request != null) {
+            // the invocation never started
+            cancelPermits(request);
+        }
+        statistics.connectionFailed();
+        try {
+            notifyListeners(listener -> listener.connectionFailed(hostPool.getUri(), e));
+            if (request != null && request.complete()) {
+                request.errorListener.error(e);
+            } else {
+                HttpClientMessages.MESSAGES.debugf(e, "Failed to open connection to %s ahead of demand", hostPool.getUri());
+            }
+        } finally {
+            // the slot reserved for the failed connection is free again
+            runPending();
         }
     }
 
+    /**
+     * Closes this pool. The requests waiting for a connection fail, idle connections are closed right away, and
+     * connections in use are closed once their current invocations are done.
+     */
     @Override
     public void close() throws IOException {
-        //TODO
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final XnioExecutor.Key key = maintenanceKey;
+        if (key != null) {
+            key.remove();
+        }
+        // the ejected addresses are re-admitted without a probe, which ends their probe timers
+        hostPool.setProber(null);
+        failPendingRequests();
+        for (Shard shard : shards) {
+            for (ConcurrentLinkedDeque<ClientConnectionHolder> queue : shard.connections.values()) {
+                ClientConnectionHolder connection;
+                while ((connection = queue.poll()) != null) {
+                    connection.retire();
+                }
+            }
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                HttpClientMessages.MESSAGES.debugf(e, "Could not unregister the connection pool MBean of %s", hostPool.getUri());
+            }
+        }
+    }
+
+    private void failPendingRequests() {
+        RequestHolder request;
+        while ((request = priorityConnectionRequests.poll()) != null || (request = slowConnectionRequests.poll()) != null
+                || (request = pendingConnectionRequests.poll()) != null) {
+            if (request.complete()) {
+                request.errorListener.error(HttpClientMessages.MESSAGES.connectionPoolClosed(hostPool.getUri()));
+            }
+        }
     }
 
     public interface ConnectionListener {
@@ -227,72 +1330,481 @@ public class HttpConnectionPool implements Closeable {
         PoolAuthenticationContext getAuthenticationContext();
 
         void sendRequest(ClientRequest request, ClientCallback<ClientExchange> callback);
+
+        /**
+         * Reports that the target failed the invocation using this connection, with a server error, a timeout or an
+         * I/O error. The address of a connection whose invocations keep failing is ejected from the load balancing.
+         * Must be invoked before {@link #done(boolean)}.
+         */
+        default void reportFailure() {
+        }
+
+        /**
+         * @return {@code true} if the connection had already been used by other invocations, and could have been closed
+         * by the server or a middlebox while it was idle in the pool
+         */
+        default boolean isReused() {
+            return false;
+        }
+
+        /**
+         * Reports that the request could not be sent on this reused connection, because it was closed while it was idle
+         * in the pool. The connections of the pool that were idle for as long are closed as well. Must be invoked
+         * before {@link #done(boolean)}.
+         */
+        default void reportStale() {
+        }
+
+        /**
+         * @return the address the connection is connected to, or {@code null} if it is not known
+         */
+        default InetAddress getAddress() {
+            return null;
+        }
+    }
+
+    /**
+     * The connections of the pool that run on one IO thread and can take more invocations, per SSL context.
+     */
+    private static final class Shard {
+        final Map<Object, ConcurrentLinkedDeque<ClientConnectionHolder>> connections = new ConcurrentHashMap<>();
+
+        ConcurrentLinkedDeque<ClientConnectionHolder> getAvailableConnections(Object sslContextKey) {
+            return connections.computeIfAbsent(sslContextKey, key -> new ConcurrentLinkedDeque<>());
+        }
     }
 
+    private class RequestHolder {
 
-    private static class RequestHolder {
         final ConnectionListener connectionListener;
         final ErrorListener errorListener;
         final boolean ignoreConnectionLimits;
         final SSLContext context;
+        final String latencyClass;
+        // the address the request should not get a connection to, null if any will do
+        final InetAddress excludedAddress;
+        final long created = System.nanoTime();
+        // the request holds a permit of the slow latency classes
+        boolean slow;
+        volatile HashedWheelTimer.Timeout timeout;
+        @SuppressWarnings("unused")
+        private volatile int complete;
 
-        private RequestHolder(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext context) {
+        private RequestHolder(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext context, String latencyClass, InetAddress excludedAddress) {
             this.connectionListener = connectionListener;
             this.errorListener = errorListener;
             this.ignoreConnectionLimits = ignoreConnectionLimits;
             this.context = context;
+            this.latencyClass = latencyClass;
+            this.excludedAddress = excludedAddress;
+        }
+
+        /**
+         * Marks this request as complete, either because it got a connection or an error, or because it timed out.
+         *
+         * @return {@code true} if the request was not complete yet
+         */
+        boolean complete() {
+            if (!completeUpdater.compareAndSet(this, 0, 1)) {
+                return false;
+            }
+            waitingRequests.decrementAndGet();
+            final HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            return true;
+        }
+
+        boolean isComplete() {
+            return complete != 0;
         }
     }
 
+    /**
+     * Holds a pooled connection.
+     * <p>
+     * A HTTP/1.1 connection is used by a single invocation at a time. Once a connection supports multiplexing (HTTP/2),
+     * it is handed to up to {@code maxStreamsPerConnection} concurrent invocations, each one of them getting its own
+     * {@link StreamHandle}. The number of streams is lowered if the server refuses to open as many concurrent streams
+     * as configured (see {@code SETTINGS_MAX_CONCURRENT_STREAMS}).
+     */
     protected class ClientConnectionHolder implements ConnectionHandle {
 
-        private volatile AtomicInteger state = new AtomicInteger();
+        // accessed through stateUpdater
+        volatile int state;
         private final ClientConnection connection;
+        private final Shard shard;
         private final URI uri;
-        private volatile XnioExecutor.Key timeoutKey;
-        private long timeout;
+        // the idle timeout armed in the shared timer, null if none
+        private volatile HashedWheelTimer.Timeout idleTimeout;
+        // the time the connection times out if it stays idle
+        private volatile long timeout;
         private final SSLContext sslContext;
+        // the maximum number of concurrent invocations when this connection is multiplexed, lowered when the server
+        // refuses a stream and raised again by each invocation that completes normally
+        private volatile int streamLimit = maxStreamsPerConnection;
+        private volatile boolean idleTimedOut;
+        // the address of the connection in the host pool, which balances new connections by load
+        private HostPool.AddressResult address;
+        // the time the invocation using this connection started, if the connection is not multiplexed
+        private long acquiredAt;
+        // the target failed the invocation using this connection, if the connection is not multiplexed
+        private volatile boolean failed;
+        // the request of the invocation using this connection, if the connection is not multiplexed
+        private RequestHolder request;
+        // the connection was idle in the pool at some point
+        private volatile boolean pooled;
+        // the connection was idle in the pool before the invocation using it, if the connection is not multiplexed
+        private boolean reused;
+        // the last time in nanoseconds this connection became idle
+        volatile long idleSince = System.nanoTime();
+        // the keep-alive ping armed in the shared timer, null if none
+        private volatile HashedWheelTimer.Timeout keepAlive;
+        // the time in nanoseconds after which this connection takes no new invocations, if maxConnectionAge is set
+        private final long retireAt;
 
-        // keep track if the connection is in use (!IN_USE = idle)
-        private static final int IN_USE  = 1;
+        // the number of invocations currently using this connection (0 = idle)
+        private static final int STREAMS_MASK = 0xFFFF;
+        // indicate this connection is in the queue of available connections
+        private static final int QUEUED  = 1 << 16;
         // indicate this connection is closed
-        private static final int CLOSED  = 1 << 1;
+        private static final int CLOSED  = 1 << 17;
+        // indicate this connection takes no new invocations, and will be closed once the last one is done
+        private static final int RETIRED = 1 << 18;
+        // indicate the slot taken by this connection in the pool was freed
+        private static final int RELEASED = 1 << 19;
 
+        // runs in the IO thread of the connection, the timer thread only hands it over
         private final Runnable timeoutTask = new Runnable() {
             @Override
             public void run() {
-                timeoutKey = null;
+                idleTimeout = null;
                 if (hasFlags(CLOSED)) {
                     return;
                 }
                 long time = System.currentTimeMillis();
                 if (timeout > time) {
-                    timeoutKey = connection.getIoThread().executeAfter(this, timeout - time, TimeUnit.MILLISECONDS);
+                    // used since the timeout was armed, re-arm it for the remaining time
+                    armIdleTimeout(timeout - time);
                     return;
                 }
-                if (tryClose()) {
-                    activeInvocationCount.decrementAndGet();
-                    runPending(); //needed to avoid a very unlikely race
+                // the slot is freed by the close listener
+                idleTimedOut = true;
+                if (!tryClose()) {
+                    idleTimedOut = false;
                 }
             }
         };
 
+        // runs in the IO thread of the connection, pings the server while the connection stays idle
+        private final Runnable keepAliveTask = new Runnable() {
+            @Override
+            public void run() {
+                keepAlive = null;
+                if (!isIdle()) {
+                    // armed again once the connection is idle
+                    return;
+                }
+                final long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleSince);
+                if (idle < KEEP_ALIVE_INTERVAL) {
+                    armKeepAlive(KEEP_ALIVE_INTERVAL - idle);
+                    return;
+                }
+                connection.sendPing(new ClientConnection.PingListener() {
+                    @Override
+                    public void acknowledged() {
+                        if (isIdle()) {
+                            armKeepAlive(KEEP_ALIVE_INTERVAL);
+                        }
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        HttpClientMessages.MESSAGES.debugf(e, "Closing connection %s that did not acknowledge a ping", connection);
+                        retire();
+                    }
+                }, PING_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        };
+
         ClientConnectionHolder(ClientConnection connection, URI uri, SSLContext sslContext) {
             this.connection = connection;
+            this.shard = getShard(connection.getIoThread());
             this.uri = uri;
             this.sslContext = sslContext;
+            final long age = maxConnectionAge - ThreadLocalRandom.current().nextLong(maxConnectionAge / 5 + 1);
+            this.retireAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(age);
+        }
+
+        /**
+         * @return {@code true} if this connection reached its maximum age
+         */
+        private boolean isTooOld() {
+            return maxConnectionAge > 0 && System.nanoTime() - retireAt >= 0;
         }
 
         final boolean tryClose() {
-            if (setFlagsIfCleared(CLOSED, IN_USE)) {
-                IoUtils.safeClose(connection);
-                return true;
-            }
-            return false;
+            int oldState;
+            do {
+                oldState = state;
+                if ((oldState & STREAMS_MASK) != 0 || anyAreSet(oldState, CLOSED)) {
+                    return false;
+                }
+            } while (!stateUpdater.compareAndSet(this, oldState, oldState | CLOSED));
+            IoUtils.safeClose(connection);
+            return true;
         }
 
+        /**
+         * Stops this connection from taking new invocations, and closes it if it is idle. Otherwise it is closed once
+         * the current invocations are done.
+         */
+        final void retire() {
+            int oldState;
+            do {
+                oldState = state;
+                if (anyAreSet(oldState, RETIRED)) {
+                    return;
+                }
+            } while (!stateUpdater.compareAndSet(this, oldState, oldState | RETIRED));
+            tryClose();
+        }
+
+        /**
+         * Tries to start a new invocation on this connection. Must only be invoked on a new connection, or after this
+         * connection was polled from the queue of available connections. If the connection can still take more
+         * invocations afterwards, it is put back at the head of that queue.
+         *
+         * @return {@code true} if the invocation can use this connection
+         */
         final boolean tryAcquire() {
-            return setFlagsIfCleared(IN_USE, CLOSED);
+            if (closed || address != null && (address.isRemoved() || address.isEjected()) || isTooOld()) {
+                // the pool is closed, the address is gone from the DNS or ejected, or the connection is too old to
+                // keep it pinned to the same node, drain this connection
+                retire();
+            }
+            for (; ; ) {
+                final int oldState = state;
+                final int streams = oldState & STREAMS_MASK;
+                final int maxStreams = getMaxStreams();
+                if (anyAreSet(oldState, CLOSED | RETIRED) || streams >= maxStreams || !connection.isOpen()) {
+                    if (stateUpdater.compareAndSet(this, oldState, oldState & ~QUEUED)) {
+                        return false;
+                    }
+                    continue;
+                }
+                final boolean requeue = streams + 1 < maxStreams;
+                final int newState = ((oldState & ~QUEUED) + 1) | (requeue ? QUEUED : 0);
+                if (stateUpdater.compareAndSet(this, oldState, newState)) {
+                    if (address != null) {
+                        address.requestStarted();
+                    }
+                    if (requeue) {
+                        shard.getAvailableConnections(getSSLContextKey(sslContext)).addFirst(this);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Ends an invocation on this connection.
+         *
+         * @param close   {@code true} if the connection must not be reused
+         * @param started the time the invocation acquired this connection
+         * @param failed  {@code true} if the target failed the invocation
+         * @param request the request of the invocation
+         */
+        private void release(boolean close, long started, boolean failed, RequestHolder request) {
+            release(close, started, failed, request, true);
+        }
+
+        /**
+         * Gives back an invocation slot acquired for a request that timed out before it got the connection. Nothing
+         * was sent, so the release is not a latency sample.
+         *
+         * @param request the request the slot was acquired for
+         */
+        final void releaseUnused(RequestHolder request) {
+            release(false, 0, false, request, false);
+        }
+
+        private void release(boolean close, long started, boolean failed, RequestHolder request, boolean used) {
+            for (; ; ) {
+                final int oldState = state;
+                final int streams = oldState & STREAMS_MASK;
+                if (streams == 0) {
+                    return;
+                }
+                int newState = (oldState - 1) | (close || closed || (address != null && (address.isRemoved() || address.isEjected())) || isTooOld() || isOverLimit() ? RETIRED : 0);
+                boolean closeNow = false;
+                boolean requeue = false;
+                if (anyAreSet(newState, RETIRED)) {
+                    closeNow = streams == 1 && allAreClear(newState, CLOSED);
+                    if (closeNow) {
+                        newState |= CLOSED;
+                    }
+                } else {
+                    requeue = allAreClear(newState, QUEUED | CLOSED) && streams - 1 < getMaxStreams();
+                    if (requeue) {
+                        newState |= QUEUED;
+                    }
+                }
+                if (stateUpdater.compareAndSet(this, oldState, newState)) {
+                    lastUsed = System.nanoTime();
+                    final boolean slow = request != null && request.slow;
+                    if (used) {
+                        if (!close && !failed && streamLimit < maxStreamsPerConnection) {
+                            // the server may have refused a stream for a moment only, racing releases may skip a step
+                            streamLimit++;
+                        }
+                        final long latency = System.nanoTime() - started;
+                        if (address != null) {
+                            address.requestCompleted(latency, failed);
+                        }
+                        if (limiter != null) {
+                            // only a failure reported by the target means it is overloaded, connections are also
+                            // closed defensively after client errors, or to cancel the losing attempt of a hedged
+                            // request
+                            limiter.onSample(latency, failed);
+                        }
+                        if (request != null) {
+                            latencyClasses.record(request.latencyClass, latency);
+                            releaseSlow(request);
+                        }
+                        statistics.connectionReleased();
+                        notifyListeners(listener -> listener.connectionReleased(hostPool.getUri(), close));
+                    } else {
+                        if (address != null) {
+                            address.requestCancelled();
+                        }
+                        cancelPermits(request);
+                    }
+                    if (closeNow) {
+                        IoUtils.safeClose(connection);
+                        return;
+                    }
+                    if (streams == 1 && allAreClear(newState, CLOSED)) {
+                        becameIdle();
+                    }
+                    if (requeue) {
+                        returnConnection(this);
+                    } else if (limiter != null || slow) {
+                        // a permit was given back
+                        runPending();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adds a connection that was opened ahead of demand to the queue of available connections.
+         */
+        final void makeAvailable() {
+            if (closed) {
+                retire();
+                return;
+            }
+            becameIdle();
+            int oldState;
+            do {
+                oldState = state;
+                if (anyAreSet(oldState, QUEUED | CLOSED | RETIRED)) {
+                    return;
+                }
+            } while (!stateUpdater.compareAndSet(this, oldState, oldState | QUEUED));
+            returnConnection(this);
+        }
+
+        private void becameIdle() {
+            idleSince = System.nanoTime();
+            pooled = true;
+            // the next invocations start from the configured limit, and find the limit of the server again if needed
+            streamLimit = maxStreamsPerConnection;
+            timeout = System.currentTimeMillis() + connectionIdleTimeout;
+            if (idleTimeout == null && connectionIdleTimeout > 0) {
+                armIdleTimeout(connectionIdleTimeout);
+            }
+            if (keepAlive == null && connection.isPingSupported()) {
+                armKeepAlive(KEEP_ALIVE_INTERVAL);
+            }
+        }
+
+        /**
+         * Arms the idle timeout in the timer shared by all the pools, rather than in the IO thread of the connection.
+         * The timer is only woken up once per timeout, and a connection that was used in between re-arms it.
+         */
+        private void armIdleTimeout(long delay) {
+            idleTimeout = HashedWheelTimer.INSTANCE.schedule(() -> connection.getIoThread().execute(timeoutTask), delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void armKeepAlive(long delay) {
+            keepAlive = HashedWheelTimer.INSTANCE.schedule(() -> connection.getIoThread().execute(keepAliveTask), delay, TimeUnit.MILLISECONDS);
+        }
+
+        final boolean isIdle() {
+            final int currentState = state;
+            return (currentState & STREAMS_MASK) == 0 && allAreClear(currentState, CLOSED | RETIRED);
+        }
+
+        /**
+         * Invoked by the close listener of the connection, frees the slot of this connection in the pool.
+         */
+        final void connectionClosed() {
+            int oldState;
+            do {
+                oldState = state;
+                if (anyAreSet(oldState, RELEASED)) {
+                    return;
+                }
+            } while (!stateUpdater.compareAndSet(this, oldState, oldState | CLOSED | RELEASED));
+            final HashedWheelTimer.Timeout idleTimeout = this.idleTimeout;
+            if (idleTimeout != null) {
+                idleTimeout.cancel();
+            }
+            final HashedWheelTimer.Timeout keepAlive = this.keepAlive;
+            if (keepAlive != null) {
+                keepAlive.cancel();
+            }
+            connectionCount.decrementAndGet();
+            statistics.connectionClosed(idleTimedOut);
+            notifyListeners(listener -> listener.connectionClosed(hostPool.getUri(), idleTimedOut));
+            runPending();
+        }
+
+        private int getMaxStreams() {
+            return connection.isMultiplexingSupported() ? streamLimit : 1;
+        }
+
+        /**
+         * Creates the handle of a newly acquired invocation on this connection.
+         *
+         * @param request the request of the invocation
+         * @return this holder, if the connection is not multiplexed, or a new stream handle otherwise
+         */
+        final ConnectionHandle createHandle(RequestHolder request) {
+            final boolean reused = pooled;
+            if (connection.isMultiplexingSupported()) {
+                if (!multiplexed) {
+                    // upgraded to HTTP/2 after the connection was opened
+                    multiplexed = true;
+                }
+                if (getNegotiatedHttp2() == null) {
+                    protocolNegotiated(true);
+                }
+                return new StreamHandle(this, System.nanoTime(), request, reused);
+            }
+            acquiredAt = System.nanoTime();
+            failed = false;
+            this.request = request;
+            this.reused = reused;
+            return this;
+        }
+
+        final void setAddress(HostPool.AddressResult address) {
+            this.address = address;
         }
 
         @Override
@@ -302,19 +1814,27 @@ public class HttpConnectionPool implements Closeable {
 
         @Override
         public void done(boolean close) {
-            if (!clearFlags(IN_USE)) {
-                return;
-            }
-            if (close) {
-                IoUtils.safeClose(connection);
-            }
-            timeout = System.currentTimeMillis() + connectionIdleTimeout;
+            release(close, acquiredAt, failed, request);
+        }
 
+        @Override
+        public void reportFailure() {
+            failed = true;
+        }
 
-            if (timeoutKey == null && connectionIdleTimeout > 0 && !close) {
-                timeoutKey = connection.getIoThread().executeAfter(timeoutTask, connectionIdleTimeout, TimeUnit.MILLISECONDS);
-            }
-            returnConnection(this);
+        @Override
+        public boolean isReused() {
+            return reused;
+        }
+
+        @Override
+        public void reportStale() {
+            retireStaleConnections(idleSince);
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return address == null ? null : address.getSelectedAddress();
         }
 
         @Override
@@ -332,40 +1852,144 @@ public class HttpConnectionPool implements Closeable {
             connection.sendRequest(request, callback);
         }
 
+        final void sendStreamRequest(ClientRequest request, ClientCallback<ClientExchange> callback) {
+            sendRequest(request, new ClientCallback<ClientExchange>() {
+                @Override
+                public void completed(ClientExchange result) {
+                    callback.completed(result);
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    // the stream could not be opened on a live connection that is carrying other streams:
+                    // the server does not allow as many concurrent streams as we are using
+                    final int otherStreams = (state & STREAMS_MASK) - 1;
+                    if (otherStreams > 0 && connection.isOpen() && otherStreams < streamLimit) {
+                        HttpClientMessages.MESSAGES.debugf("Limiting connection %s to %d concurrent streams", connection, otherStreams);
+                        streamLimit = otherStreams;
+                    }
+                    callback.failed(e);
+                }
+            });
+        }
+
         protected final void setFlags(int flags) {
             int oldState;
             do {
-                oldState = state.get();
+                oldState = state;
                 if ((oldState & flags) == flags || (oldState & CLOSED) == CLOSED) {
                     return;
                 }
-            } while (! state.compareAndSet(oldState, oldState | flags));
+            } while (! stateUpdater.compareAndSet(this, oldState, oldState | flags));
         }
 
         protected final boolean setFlagsIfCleared(int flags, int clearedFlags) {
             int oldState;
             do {
-                oldState = state.get();
+                oldState = state;
                 if ((oldState & flags) == flags || (oldState & clearedFlags) == clearedFlags) {
                     return false;
                 }
-            } while (! state.compareAndSet(oldState, oldState | flags));
+            } while (! stateUpdater.compareAndSet(this, oldState, oldState | flags));
             return true;
         }
 
         protected final boolean clearFlags(int flags) {
             int oldState;
             do {
-                oldState = state.get();
+                oldState = state;
                 if ((oldState & flags) == 0) {
                     return false;
                 }
-            } while (! state.compareAndSet(oldState, oldState & ~flags));
+            } while (! stateUpdater.compareAndSet(this, oldState, oldState & ~flags));
             return true;
         }
 
         protected final boolean hasFlags(int flags) {
-            return (state.get() & flags) == flags;
+            return (state & flags) == flags;
+        }
+    }
+
+    /**
+     * The protocol negotiated by the connections to the target, remembered for {@link #PROTOCOL_CACHE_TIME}.
+     */
+    private static final class NegotiatedProtocol {
+        private final boolean http2;
+        private final long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROTOCOL_CACHE_TIME);
+
+        private NegotiatedProtocol(boolean http2) {
+            this.http2 = http2;
+        }
+    }
+
+    /**
+     * The handle of a single invocation over a multiplexed connection. Each concurrent invocation gets its own handle,
+     * so that it releases only its own stream when done.
+     */
+    private static final class StreamHandle implements ConnectionHandle {
+
+        private static final AtomicIntegerFieldUpdater<StreamHandle> doneUpdater = AtomicIntegerFieldUpdater.newUpdater(StreamHandle.class, "done");
+
+        private final ClientConnectionHolder holder;
+        private final long started;
+        @SuppressWarnings("unused")
+        private volatile int done;
+        private volatile boolean failed;
+        private final RequestHolder request;
+        private final boolean reused;
+
+        private StreamHandle(ClientConnectionHolder holder, long started, RequestHolder request, boolean reused) {
+            this.holder = holder;
+            this.started = started;
+            this.request = request;
+            this.reused = reused;
+        }
+
+        @Override
+        public ClientConnection getConnection() {
+            return holder.getConnection();
+        }
+
+        @Override
+        public void done(boolean close) {
+            if (doneUpdater.compareAndSet(this, 0, 1)) {
+                holder.release(close, started, failed, request);
+            }
+        }
+
+        @Override
+        public URI getUri() {
+            return holder.getUri();
+        }
+
+        @Override
+        public PoolAuthenticationContext getAuthenticationContext() {
+            return holder.getAuthenticationContext();
+        }
+
+        @Override
+        public void sendRequest(ClientRequest request, ClientCallback<ClientExchange> callback) {
+            holder.sendStreamRequest(request, callback);
+        }
+
+        @Override
+        public void reportFailure() {
+            failed = true;
+        }
+
+        @Override
+        public boolean isReused() {
+            return reused;
+        }
+
+        @Override
+        public void reportStale() {
+            holder.reportStale();
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return holder.getAddress();
         }
     }
 
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.URI;
+
+/**
+ * Receives the events of a {@link HttpConnectionPool connection pool}. Listeners are either added to a pool with
+ * {@link HttpConnectionPool#addListener(HttpConnectionPoolListener)}, or registered for all pools as a service
+ * ({@code META-INF/services/org.wildfly.httpclient.common.HttpConnectionPoolListener}).
+ * <p>
+ * Events are delivered in the thread that caused them, which is often an IO thread, so listeners must not block.
+ */
+public interface HttpConnectionPoolListener {
+
+    /**
+     * A new connection was established.
+     *
+     * @param uri          the URI of the pool
+     * @param connectNanos the time it took to establish the connection, in nanoseconds
+     */
+    default void connectionCreated(URI uri, long connectNanos) {
+    }
+
+    /**
+     * A connection could not be established.
+     *
+     * @param uri   the URI of the pool
+     * @param cause the cause of the failure
+     */
+    default void connectionFailed(URI uri, Exception cause) {
+    }
+
+    /**
+     * An invocation acquired a connection.
+     *
+     * @param uri       the URI of the pool
+     * @param waitNanos the time the invocation waited for the connection, in nanoseconds
+     */
+    default void connectionAcquired(URI uri, long waitNanos) {
+    }
+
+    /**
+     * An invocation released its connection.
+     *
+     * @param uri   the URI of the pool
+     * @param close {@code true} if the connection must not be reused
+     */
+    default void connectionReleased(URI uri, boolean close) {
+    }
+
+    /**
+     * A connection was closed.
+     *
+     * @param uri         the URI of the pool
+     * @param idleTimeout {@code true} if the connection was closed by the idle timeout
+     */
+    default void connectionClosed(URI uri, boolean idleTimeout) {
+    }
+}
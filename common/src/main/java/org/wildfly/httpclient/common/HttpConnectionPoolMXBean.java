@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+/**
+ * Management interface of a {@link HttpConnectionPool connection pool}, registered under
+ * {@code org.wildfly.httpclient:type=HttpConnectionPool,uri="<target uri>"}. Times are in milliseconds.
+ */
+public interface HttpConnectionPoolMXBean {
+
+    String getUri();
+
+    int getMaxConnections();
+
+    int getConcurrencyLimit();
+
+    int getOpenConnections();
+
+    int getConnectingConnections();
+
+    int getIdleConnections();
+
+    long getActiveInvocations();
+
+    int getPendingRequests();
+
+    long getRejectedRequests();
+
+    long getRetriedRequests();
+
+    long getInFlightBytes();
+
+    long getConnectionsCreated();
+
+    long getConnectionsClosed();
+
+    long getIdleTimeoutCloses();
+
+    long getConnectionFailures();
+
+    long getAcquisitions();
+
+    double getMeanWaitTime();
+
+    double getWaitTime99thPercentile();
+
+    double getMaxWaitTime();
+
+    double getMeanConnectTime();
+
+    double getConnectTime99thPercentile();
+
+    double getMaxConnectTime();
+}
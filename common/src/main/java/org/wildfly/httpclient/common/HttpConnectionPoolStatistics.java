@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of a {@link HttpConnectionPool connection pool}. Counters are updated without locking, and wait
+ * and connect times are recorded in histograms with one bucket per power of two microseconds.
+ */
+public final class HttpConnectionPoolStatistics implements HttpConnectionPoolMXBean {
+
+    private final HttpConnectionPool pool;
+    private final LongAdder activeInvocations = new LongAdder();
+    private final LongAdder connectionsCreated = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder idleTimeoutCloses = new LongAdder();
+    private final LongAdder connectionFailures = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder retriedRequests = new LongAdder();
+    private final Histogram waitTimes = new Histogram();
+    private final Histogram connectTimes = new Histogram();
+
+    HttpConnectionPoolStatistics(HttpConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    void connectionCreated(long connectNanos) {
+        connectionsCreated.increment();
+        connectTimes.record(connectNanos);
+    }
+
+    void connectionFailed() {
+        connectionFailures.increment();
+    }
+
+    void connectionClosed(boolean idleTimeout) {
+        connectionsClosed.increment();
+        if (idleTimeout) {
+            idleTimeoutCloses.increment();
+        }
+    }
+
+    void connectionAcquired(long waitNanos) {
+        activeInvocations.increment();
+        waitTimes.record(waitNanos);
+    }
+
+    void connectionReleased() {
+        activeInvocations.decrement();
+    }
+
+    void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    void requestRetried() {
+        retriedRequests.increment();
+    }
+
+    @Override
+    public String getUri() {
+        return pool.getUri().toString();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return pool.getMaxConnections();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return pool.getConcurrencyLimit();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return pool.getConnectionCount() - pool.getConnectingCount();
+    }
+
+    @Override
+    public int getConnectingConnections() {
+        return pool.getConnectingCount();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return pool.getIdleConnectionCount();
+    }
+
+    @Override
+    public long getActiveInvocations() {
+        return activeInvocations.sum();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return pool.getPendingRequestCount();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    @Override
+    public long getRetriedRequests() {
+        return retriedRequests.sum();
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return pool.getInFlightBytes();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return connectionsCreated.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getIdleTimeoutCloses() {
+        return idleTimeoutCloses.sum();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        return connectionFailures.sum();
+    }
+
+    @Override
+    public long getAcquisitions() {
+        return waitTimes.getCount();
+    }
+
+    @Override
+    public double getMeanWaitTime() {
+        return waitTimes.getMean();
+    }
+
+    @Override
+    public double getWaitTime99thPercentile() {
+        return waitTimes.getPercentile(0.99);
+    }
+
+    @Override
+    public double getMaxWaitTime() {
+        return waitTimes.getMax();
+    }
+
+    @Override
+    public double getMeanConnectTime() {
+        return connectTimes.getMean();
+    }
+
+    @Override
+    public double getConnectTime99thPercentile() {
+        return connectTimes.getPercentile(0.99);
+    }
+
+    @Override
+    public double getMaxConnectTime() {
+        return connectTimes.getMax();
+    }
+
+    /**
+     * A histogram of durations, with one bucket per power of two microseconds. Percentiles are reported as the upper
+     * bound of their bucket.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+        private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.increment();
+            total.add(nanos);
+            long currentMax;
+            do {
+                currentMax = max.get();
+                if (currentMax >= nanos) {
+                    break;
+                }
+            } while (!max.compareAndSet(currentMax, nanos));
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMean() {
+            final long count = this.count.sum();
+            return count == 0 ? 0 : total.sum() / NANOS_PER_MILLI / count;
+        }
+
+        double getMax() {
+            return max.get() / NANOS_PER_MILLI;
+        }
+
+        double getPercentile(double percentile) {
+            long remaining = (long) Math.ceil(count.sum() * percentile);
+            if (remaining == 0) {
+                return 0;
+            }
+            for (int i = 0; i < BUCKETS; ++i) {
+                remaining -= buckets.get(i);
+                if (remaining <= 0) {
+                    // bucket i holds the durations below 2^i microseconds
+                    return Math.min((1L << i) / 1000.0, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
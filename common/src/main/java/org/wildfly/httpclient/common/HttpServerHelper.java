@@ -41,7 +41,7 @@ public class HttpServerHelper {
             exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/x-wf-jbmar-exception;version=1");
             final Marshaller marshaller = serviceConfig.getHttpMarshallerFactory(exchange).createMarshaller();
             OutputStream outputStream = exchange.getOutputStream();
-            final ByteOutput byteOutput = Marshalling.createByteOutput(outputStream);
+            final ByteOutput byteOutput = new NoFlushByteOutput(Marshalling.createByteOutput(outputStream));
             // start the marshaller
             marshaller.start(byteOutput);
             marshaller.writeObject(e);
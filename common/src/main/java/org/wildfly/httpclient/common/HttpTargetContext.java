@@ -24,11 +24,13 @@ import io.undertow.client.ClientRequest;
 import io.undertow.client.ClientResponse;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.util.AbstractAttachable;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.Cookies;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
+import org.jboss.marshalling.ByteInput;
 import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.security.auth.client.AuthenticationConfiguration;
@@ -40,11 +42,14 @@ import org.xnio.IoUtils;
 import org.xnio.channels.StreamSourceChannel;
 
 import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInput;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.URI;
 import java.security.AccessController;
 import java.security.GeneralSecurityException;
@@ -52,8 +57,14 @@ import java.security.PrivilegedAction;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -63,6 +74,34 @@ import java.util.zip.GZIPInputStream;
  */
 public class HttpTargetContext extends AbstractAttachable {
 
+    /**
+     * The timeout of a request in milliseconds, attached to the {@link ClientRequest}. It covers the time spent
+     * waiting for a connection, connecting and waiting for the response headers, and overrides the request timeout
+     * configured for the target.
+     */
+    public static final AttachmentKey<Long> REQUEST_TIMEOUT = AttachmentKey.create(Long.class);
+
+    /**
+     * Marks a {@link ClientRequest} as safe to send twice. If the target hedges requests, an idempotent request that
+     * has not been answered after the hedging delay is sent again on a connection to another address, and the first
+     * answer wins. The invocation may then run on two servers. The body of a hedged request is marshalled only once,
+     * and held in memory until both attempts have sent it.
+     */
+    public static final AttachmentKey<Boolean> IDEMPOTENT = AttachmentKey.create(Boolean.class);
+
+    /**
+     * Marks a {@link ClientRequest} as control traffic, such as a cancellation or the completion of a transaction.
+     * It gets a connection before the business invocations waiting for one, and can use connections reserved for it
+     * beyond the connection limits of the target.
+     */
+    public static final AttachmentKey<Boolean> PRIORITY = AttachmentKey.create(Boolean.class);
+
+    /**
+     * The latency class of a {@link ClientRequest}, typically the method it invokes. The connection pool tracks the
+     * latency of each class, and caps the share of its connections held by the classes that are historically slow.
+     */
+    public static final AttachmentKey<String> LATENCY_CLASS = AttachmentKey.create(String.class);
+
     private static final AuthenticationContextConfigurationClient AUTH_CONTEXT_CLIENT;
     private static final String GENERAL_EXCEPTION_ON_FAILED_AUTH_PROPERTY = "org.wildfly.httpclient.io-exception-on-failed-auth";
 
@@ -81,9 +120,13 @@ public class HttpTargetContext extends AbstractAttachable {
     private volatile String sessionId;
     private final URI uri;
     private final AuthenticationContext initAuthenticationContext;
+    // the authentication state is kept per target, the connection pool may be shared with other targets
+    private final PoolAuthenticationContext authenticationContext = new PoolAuthenticationContext();
 
     private final AtomicBoolean affinityRequestSent = new AtomicBoolean();
     private final HttpMarshallerFactoryProvider httpMarshallerFactoryProvider;
+    // null if the requests of this target are not hedged
+    private final HedgingPolicy hedgingPolicy;
 
     private static ClassLoader getContextClassLoader() {
         if(System.getSecurityManager() == null) {
@@ -104,6 +147,11 @@ public class HttpTargetContext extends AbstractAttachable {
         this.uri = uri;
         this.initAuthenticationContext = AuthenticationContext.captureCurrent();
         this.httpMarshallerFactoryProvider = provider;
+        final int hedgePercentile = connectionPool.getOptions().get(HttpClientOptions.HEDGE_PERCENTILE, 0);
+        // in interoperable mode the marshaller factory is attached to the request by the connection, one request
+        // cannot be sent on two connections
+        this.hedgingPolicy = hedgePercentile > 0 && !EENamespaceInteroperability.EE_NAMESPACE_INTEROPERABLE_MODE ?
+                new HedgingPolicy(hedgePercentile, connectionPool.getOptions().get(HttpClientOptions.HEDGE_BUDGET, 10)) : null;
     }
 
     void init() {
@@ -155,12 +203,31 @@ public class HttpTargetContext extends AbstractAttachable {
             request.getRequestHeaders().add(Headers.COOKIE, JSESSIONID + "=" + sessionId);
         }
         final ClassLoader tccl = getContextClassLoader();
-        connectionPool.getConnection(connection -> sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, false, sslContext, tccl), failureHandler::handleFailure, false, sslContext);
+        final Long requestTimeout = request.getAttachment(REQUEST_TIMEOUT);
+        final long timeout = requestTimeout != null ? requestTimeout : connectionPool.getRequestTimeout();
+        final long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        if (hedgingPolicy != null && Boolean.TRUE.equals(request.getAttachment(IDEMPOTENT))) {
+            new HedgedRequest(request, sslContext, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, tccl, timeout, deadline).start();
+            return;
+        }
+        connectionPool.getConnection(connection -> sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, false, sslContext, tccl, timeout, deadline), failureHandler::handleFailure, isPriority(request), sslContext, timeout, request.getAttachment(LATENCY_CLASS));
+    }
+
+    private static boolean isPriority(ClientRequest request) {
+        return Boolean.TRUE.equals(request.getAttachment(PRIORITY));
     }
 
     public void sendRequestInternal(final HttpConnectionPool.ConnectionHandle connection, ClientRequest request, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, boolean retry, SSLContext sslContext, ClassLoader classLoader) {
+        sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, retry, sslContext, classLoader, 0, 0);
+    }
+
+    private void sendRequestInternal(final HttpConnectionPool.ConnectionHandle connection, ClientRequest request, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler requestFailureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, boolean retry, SSLContext sslContext, ClassLoader classLoader, long timeout, long deadline) {
+        final ResponseTimeout responseTimeout = deadline == 0 ? null : new ResponseTimeout(connection, requestFailureHandler, timeout, deadline);
+        final HttpFailureHandler failureHandler = responseTimeout == null ? requestFailureHandler : responseTimeout;
+        final Runnable retryTask = () -> connectionPool.getConnection(newConnection -> sendRequestInternal(newConnection, request, authenticationConfiguration, httpMarshaller, httpResultHandler, requestFailureHandler, expectedResponse, completedTask, allowNoContent, retry, sslContext, classLoader, timeout, deadline),
+                requestFailureHandler::handleFailure, isPriority(request), sslContext, deadline == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())), request.getAttachment(LATENCY_CLASS));
         try {
-            final boolean authAdded = retry || connection.getAuthenticationContext().prepareRequest(connection.getUri(), request, authenticationConfiguration);
+            final boolean authAdded = retry || authenticationContext.prepareRequest(uri, request, authenticationConfiguration);
 
             if (!request.getRequestHeaders().contains(Headers.HOST)) {
                 String host;
@@ -180,34 +247,36 @@ public class HttpTargetContext extends AbstractAttachable {
                 AUTH_CONTEXT_CLIENT.getAuthenticationConfiguration(uri, initAuthenticationContext)
                 : authenticationConfiguration;
 
-            if (request.getRequestHeaders().contains(Headers.CONTENT_TYPE)) {
-                request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
-            }
-            connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+            // completed once a request with a body was sent, so that its body can be written
+            final CompletableFuture<ClientExchange> requestSent = httpMarshaller == null ? null : new CompletableFuture<>();
+            final ClientCallback<ClientExchange> requestCallback = new ClientCallback<ClientExchange>() {
                 @Override
                 public void completed(ClientExchange result) {
                     result.setResponseListener(new ClientCallback<ClientExchange>() {
                         @Override
                         public void completed(ClientExchange result) {
+                            if (responseTimeout != null && !responseTimeout.responseReceived()) {
+                                // the request timed out and its connection was closed already
+                                return;
+                            }
                             connection.getConnection().getWorker().execute(() -> {
                                 ClientResponse response = result.getResponse();
-                                if (!authAdded || connection.getAuthenticationContext().isStale(result)) {
+                                if (!authAdded || authenticationContext.isStale(result)) {
                                     handleSessionAffinity(request, response);
-                                    if (connection.getAuthenticationContext().handleResponse(response)) {
-                                        URI uri = connection.getUri();
+                                    if (authenticationContext.handleResponse(response)) {
                                         connection.done(false);
                                         final AtomicBoolean done = new AtomicBoolean();
                                         ChannelListener<StreamSourceChannel> listener = ChannelListeners.drainListener(Long.MAX_VALUE, channel -> {
                                             done.set(true);
                                             connectionPool.getConnection((connection) -> {
-                                                if (connection.getAuthenticationContext().prepareRequest(uri, request, finalAuthenticationConfiguration)) {
+                                                if (authenticationContext.prepareRequest(uri, request, finalAuthenticationConfiguration)) {
                                                     //retry the invocation
-                                                    sendRequestInternal(connection, request, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, true, finalSslContext, classLoader);
+                                                    sendRequestInternal(connection, request, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, true, finalSslContext, classLoader, timeout, deadline);
                                                 } else {
                                                     failureHandler.handleFailure(HttpClientMessages.MESSAGES.authenticationFailed());
                                                     connection.done(true);
                                                 }
-                                            }, failureHandler::handleFailure, false, finalSslContext);
+                                            }, failureHandler::handleFailure, isPriority(request), finalSslContext, deadline == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
 
                                         }, (channel, exception) -> failureHandler.handleFailure(exception));
                                         listener.handleEvent(result.getResponseChannel());
@@ -246,6 +315,9 @@ public class HttpTargetContext extends AbstractAttachable {
                                     } else {
                                         failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseType(type));
                                     }
+                                    if (response.getResponseCode() >= StatusCodes.INTERNAL_SERVER_ERROR) {
+                                        connection.reportFailure();
+                                    }
                                     //close the connection to be safe
                                     connection.done(true);
                                     return;
@@ -255,7 +327,7 @@ public class HttpTargetContext extends AbstractAttachable {
 
                                     if (isException) {
                                         final Unmarshaller unmarshaller = getHttpMarshallerFactory(request).createUnmarshaller(classLoader);
-                                        try (WildflyClientInputStream inputStream = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel())) {
+                                        try (WildflyClientInputStream inputStream = new WildflyClientInputStream(connectionPool.getStreamBufferPool(result.getConnection().getBufferPool()), result.getResponseChannel(), connectionPool.getReadAheadBuffers())) {
                                             InputStream in = inputStream;
                                             String encoding = response.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
                                             if (encoding != null) {
@@ -266,7 +338,7 @@ public class HttpTargetContext extends AbstractAttachable {
                                                     throw HttpClientMessages.MESSAGES.invalidContentEncoding(encoding);
                                                 }
                                             }
-                                            unmarshaller.start(new InputStreamByteInput(in));
+                                            unmarshaller.start(createByteInput(in));
                                             Throwable exception = (Throwable) unmarshaller.readObject();
                                             Map<String, Object> attachments = readAttachments(unmarshaller);
                                             int read = in.read();
@@ -282,12 +354,15 @@ public class HttpTargetContext extends AbstractAttachable {
                                     } else if (response.getResponseCode() >= 400) {
                                         //unknown error
                                         failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseCode(response.getResponseCode(), response));
+                                        if (response.getResponseCode() >= StatusCodes.INTERNAL_SERVER_ERROR) {
+                                            connection.reportFailure();
+                                        }
                                         //close the connection to be safe
                                         connection.done(true);
 
                                     } else {
                                         if (httpResultHandler != null) {
-                                            final InputStream in = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel());
+                                            final InputStream in = new WildflyClientInputStream(connectionPool.getStreamBufferPool(result.getConnection().getBufferPool()), result.getResponseChannel(), connectionPool.getReadAheadBuffers());
                                             InputStream inputStream = in;
                                             Closeable doneCallback = () -> {
                                                 IoUtils.safeClose(in);
@@ -312,7 +387,7 @@ public class HttpTargetContext extends AbstractAttachable {
                                                 httpResultHandler.handleResult(inputStream, response, doneCallback);
                                             }
                                         } else {
-                                            final InputStream in = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel());
+                                            final InputStream in = new WildflyClientInputStream(connectionPool.getStreamBufferPool(result.getConnection().getBufferPool()), result.getResponseChannel(), connectionPool.getReadAheadBuffers());
                                             IoUtils.safeClose(in);
                                             if (completedTask != null) {
                                                 completedTask.run();
@@ -333,42 +408,97 @@ public class HttpTargetContext extends AbstractAttachable {
 
                         @Override
                         public void failed(IOException e) {
+                            // a request without a body that is safe to send twice can be retried, even if it reached
+                            // the server before the stale connection failed
+                            if (httpMarshaller == null && Boolean.TRUE.equals(request.getAttachment(IDEMPOTENT))
+                                    && retryStale(connection, responseTimeout, requestFailureHandler, e, retryTask)) {
+                                return;
+                            }
                             try {
                                 failureHandler.handleFailure(e);
                             } finally {
+                                if (!isAbandoned(responseTimeout, requestFailureHandler)) {
+                                    connection.reportFailure();
+                                }
                                 connection.done(true);
                             }
                         }
                     });
 
-                    if (httpMarshaller != null) {
-                        //marshalling is blocking, we need to delegate, otherwise we may need to buffer arbitrarily large requests
-                        connection.getConnection().getWorker().execute(() -> {
-                            try (OutputStream outputStream = new WildflyClientOutputStream(result.getRequestChannel(), result.getConnection().getBufferPool())) {
-
-                                // marshall the locator and method params
-                                // start the marshaller
-                                httpMarshaller.marshall(outputStream);
-
-                            } catch (Exception e) {
-                                try {
-                                    failureHandler.handleFailure(e);
-                                } finally {
-                                    connection.done(true);
-                                }
-                            }
-                        });
+                    if (requestSent != null) {
+                        requestSent.complete(result);
                     }
                 }
 
                 @Override
                 public void failed(IOException e) {
+                    if (requestSent != null) {
+                        // the failure is handled here, not by the thread waiting to write the body
+                        requestSent.cancel(false);
+                    }
+                    // the request was not sent, it can be retried on a new connection
+                    if (retryStale(connection, responseTimeout, requestFailureHandler, e, retryTask)) {
+                        return;
+                    }
                     try {
                         failureHandler.handleFailure(e);
                     } finally {
+                        if (!isAbandoned(responseTimeout, requestFailureHandler)) {
+                            connection.reportFailure();
+                        }
                         connection.done(true);
                     }
                 }
+            };
+
+            if (httpMarshaller == null) {
+                if (request.getRequestHeaders().contains(Headers.CONTENT_TYPE)) {
+                    request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+                }
+                connection.sendRequest(request, requestCallback);
+                return;
+            }
+            //marshalling is blocking, we need to delegate, otherwise we may need to buffer arbitrarily large requests
+            connection.getConnection().getWorker().execute(() -> {
+                // small bodies are marshalled before the request is sent, so that they are sent with a content length
+                final RequestBodyOutputStream outputStream = new RequestBodyOutputStream(connectionPool.getMaxBufferedBodySize(), contentLength -> {
+                    if (contentLength < 0) {
+                        request.getRequestHeaders().remove(Headers.CONTENT_LENGTH);
+                        request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+                    } else {
+                        request.getRequestHeaders().remove(Headers.TRANSFER_ENCODING);
+                        request.getRequestHeaders().put(Headers.CONTENT_LENGTH, contentLength);
+                    }
+                    connection.getConnection().getIoThread().execute(() -> {
+                        try {
+                            connection.sendRequest(request, requestCallback);
+                        } catch (Throwable e) {
+                            requestSent.completeExceptionally(e);
+                        }
+                    });
+                    final ClientExchange exchange = awaitRequestSent(requestSent);
+                    return new WildflyClientOutputStream(exchange.getRequestChannel(), connectionPool.getStreamBufferPool(exchange.getConnection().getBufferPool()), connectionPool.getWriteBehindBuffers());
+                });
+                try {
+
+                    // marshall the locator and method params
+                    // start the marshaller
+                    httpMarshaller.marshall(outputStream);
+                    outputStream.finish();
+
+                } catch (Exception e) {
+                    // a body that was held back is dropped, rather than sent truncated
+                    outputStream.abort();
+                    if (requestSent.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        failureHandler.handleFailure(e);
+                    } finally {
+                        // the connection is still clean if the request was never sent
+                        connection.done(outputStream.isRequestSent());
+                    }
+                }
             });
         } catch (Throwable e) {
             try {
@@ -379,6 +509,63 @@ public class HttpTargetContext extends AbstractAttachable {
         }
     }
 
+    private static ClientExchange awaitRequestSent(CompletableFuture<ClientExchange> requestSent) throws IOException {
+        try {
+            return requestSent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (CancellationException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Retries a request on a new connection if the connection it was sent on had been idle in the pool, and was
+     * closed by the server or a middlebox in the meantime, as long as the retry budget of the pool allows it. A
+     * connection this client closed itself, because the request timed out or lost its hedge, is not stale.
+     *
+     * @param connection      the connection the request failed on
+     * @param responseTimeout the response timeout of the request, or {@code null} if none
+     * @param failureHandler  the failure handler of the request
+     * @param failure         the failure of the request
+     * @param retryTask       sends the request again on a new connection
+     * @return {@code true} if the request is retried, and the failure must not be reported
+     */
+    private boolean retryStale(HttpConnectionPool.ConnectionHandle connection, ResponseTimeout responseTimeout, HttpFailureHandler failureHandler, IOException failure, Runnable retryTask) {
+        if (!connection.isReused() || connection.getConnection().isOpen() || isAbandoned(responseTimeout, failureHandler)
+                || !connectionPool.tryRetry()) {
+            return false;
+        }
+        if (responseTimeout != null && !responseTimeout.abandon()) {
+            // the request already timed out
+            return false;
+        }
+        HttpClientMessages.MESSAGES.debugf(failure, "Retrying request to %s on a new connection, the pooled connection %s was stale", uri, connection.getConnection());
+        try {
+            connection.reportStale();
+        } finally {
+            connection.done(true);
+        }
+        retryTask.run();
+        return true;
+    }
+
+    /**
+     * @return {@code true} if this client gave up on the request and closed its connection, so that the failure of the
+     * connection says nothing about the target
+     */
+    private static boolean isAbandoned(HttpFailureHandler... failureHandlers) {
+        for (HttpFailureHandler failureHandler : failureHandlers) {
+            if (failureHandler instanceof AbandonableRequest && ((AbandonableRequest) failureHandler).isAbandoned()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void handleSessionAffinity(ClientRequest request, ClientResponse response) {
         //handle session affinity
         HeaderValues cookies = response.getResponseHeaders().get(Headers.SET_COOKIE);
@@ -432,6 +619,18 @@ public class HttpTargetContext extends AbstractAttachable {
         this.sessionId = sessionId;
     }
 
+    /**
+     * Returns the {@link ByteInput} to unmarshal a response from. The response streams handed to the
+     * {@link HttpResultHandler result handlers} are read straight from the pooled buffers of the connection, unless the
+     * response is compressed.
+     *
+     * @param input the response stream
+     * @return the byte input reading the response stream
+     */
+    public static ByteInput createByteInput(InputStream input) {
+        return input instanceof ByteInput ? (ByteInput) input : new InputStreamByteInput(input);
+    }
+
     public URI getUri() {
         return uri;
     }
@@ -481,4 +680,309 @@ public class HttpTargetContext extends AbstractAttachable {
     public interface HttpFailureHandler {
         void handleFailure(Throwable throwable);
     }
+
+    /**
+     * A failure handler of a request that this client may give up on, closing its connection.
+     */
+    private interface AbandonableRequest {
+        boolean isAbandoned();
+    }
+
+    /**
+     * Fails a request whose response headers did not arrive before its deadline, and closes its connection instead
+     * of leaving it to a server that does not answer. Failures reported once the request timed out are ignored.
+     */
+    private final class ResponseTimeout implements HttpFailureHandler, Runnable, AbandonableRequest {
+
+        private static final int ACTIVE = 0;
+        private static final int RESPONDED = 1;
+        private static final int FAILED = 2;
+        private static final int EXPIRED = 3;
+
+        private final HttpConnectionPool.ConnectionHandle connection;
+        private final HttpFailureHandler delegate;
+        private final long timeout;
+        private final AtomicInteger state = new AtomicInteger();
+        private final HashedWheelTimer.Timeout timerTimeout;
+
+        ResponseTimeout(HttpConnectionPool.ConnectionHandle connection, HttpFailureHandler delegate, long timeout, long deadline) {
+            this.connection = connection;
+            this.delegate = delegate;
+            this.timeout = timeout;
+            this.timerTimeout = HashedWheelTimer.INSTANCE.schedule(this, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Invoked when the response headers arrive.
+         *
+         * @return {@code false} if the request timed out before
+         */
+        boolean responseReceived() {
+            if (state.compareAndSet(ACTIVE, RESPONDED)) {
+                timerTimeout.cancel();
+                return true;
+            }
+            return state.get() != EXPIRED;
+        }
+
+        /**
+         * Invoked when the request is retried on a new connection, which gets a response timeout of its own.
+         *
+         * @return {@code false} if the request timed out before
+         */
+        boolean abandon() {
+            if (state.compareAndSet(ACTIVE, FAILED)) {
+                timerTimeout.cancel();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isAbandoned() {
+            return state.get() == EXPIRED;
+        }
+
+        @Override
+        public void handleFailure(Throwable throwable) {
+            int oldState;
+            do {
+                oldState = state.get();
+                if (oldState == EXPIRED) {
+                    return;
+                }
+            } while (oldState == ACTIVE && !state.compareAndSet(ACTIVE, FAILED));
+            if (oldState == ACTIVE) {
+                timerTimeout.cancel();
+            }
+            delegate.handleFailure(throwable);
+        }
+
+        @Override
+        public void run() {
+            if (state.compareAndSet(ACTIVE, EXPIRED)) {
+                try {
+                    delegate.handleFailure(HttpClientMessages.MESSAGES.requestTimedOut(uri, timeout));
+                } finally {
+                    connection.reportFailure();
+                    connection.done(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * An idempotent request that is sent again on another connection if it has not been answered after the hedging
+     * delay of the target, as long as the hedging budget allows it. The first attempt to be answered wins. The second
+     * attempt gets a connection to another address than the first one, unless the pool is full.
+     * <p>
+     * The connection of the losing attempt is closed if it is a HTTP/1.1 connection. A multiplexed connection carries
+     * the streams of other invocations, so the losing stream is left to complete and its answer is dropped.
+     */
+    private final class HedgedRequest {
+        private final SSLContext sslContext;
+        private final AuthenticationConfiguration authenticationConfiguration;
+        // marshals the body once for both attempts, null if the request has no body
+        private final HttpMarshaller httpMarshaller;
+        private final HttpResultHandler httpResultHandler;
+        private final HttpFailureHandler failureHandler;
+        private final ContentType expectedResponse;
+        private final Runnable completedTask;
+        private final boolean allowNoContent;
+        private final ClassLoader classLoader;
+        private final long timeout;
+        private final long deadline;
+        private final boolean priority;
+        private final String latencyClass;
+        private final long started = System.nanoTime();
+        private final Attempt primary;
+        // a copy of the request taken before the first attempt changes its headers
+        private final ClientRequest hedgeRequest;
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+        // guarded by this
+        private Attempt hedge;
+        // the attempts that were neither answered nor failed, guarded by this
+        private int pending = 1;
+        private volatile HashedWheelTimer.Timeout hedgeTimeout;
+
+        HedgedRequest(ClientRequest request, SSLContext sslContext, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, ClassLoader classLoader, long timeout, long deadline) {
+            this.sslContext = sslContext;
+            this.authenticationConfiguration = authenticationConfiguration;
+            this.httpMarshaller = httpMarshaller == null ? null : new BufferedMarshaller(httpMarshaller);
+            this.httpResultHandler = httpResultHandler;
+            this.failureHandler = failureHandler;
+            this.expectedResponse = expectedResponse;
+            this.completedTask = completedTask;
+            this.allowNoContent = allowNoContent;
+            this.classLoader = classLoader;
+            this.timeout = timeout;
+            this.deadline = deadline;
+            this.priority = isPriority(request);
+            this.latencyClass = request.getAttachment(LATENCY_CLASS);
+            this.primary = new Attempt(request);
+            this.hedgeRequest = new ClientRequest()
+                    .setMethod(request.getMethod())
+                    .setPath(request.getPath())
+                    .setProtocol(request.getProtocol());
+            for (HeaderValues values : request.getRequestHeaders()) {
+                hedgeRequest.getRequestHeaders().putAll(values.getHeaderName(), values);
+            }
+            hedgeRequest.putAttachment(IDEMPOTENT, true);
+        }
+
+        void start() {
+            final long delay = hedgingPolicy.requestStarted();
+            if (delay > 0) {
+                hedgeTimeout = HashedWheelTimer.INSTANCE.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            }
+            primary.send(null);
+        }
+
+        private void hedge() {
+            final Attempt attempt;
+            synchronized (this) {
+                if (winner.get() != null || pending == 0 || !hedgingPolicy.tryHedge()) {
+                    return;
+                }
+                hedge = attempt = new Attempt(hedgeRequest);
+                pending++;
+            }
+            // the address of the first attempt is the one that is slow to answer
+            final HttpConnectionPool.ConnectionHandle primaryConnection = primary.connection;
+            attempt.send(primaryConnection == null ? null : primaryConnection.getAddress());
+        }
+
+        private void decided(Attempt attempt) {
+            final HashedWheelTimer.Timeout hedgeTimeout = this.hedgeTimeout;
+            if (hedgeTimeout != null) {
+                hedgeTimeout.cancel();
+            }
+            final Attempt other;
+            synchronized (this) {
+                other = attempt == primary ? hedge : primary;
+            }
+            if (other != null) {
+                other.cancel();
+            }
+        }
+
+        private final class Attempt implements HttpResultHandler, HttpFailureHandler, AbandonableRequest {
+            private final ClientRequest request;
+            private volatile HttpConnectionPool.ConnectionHandle connection;
+            private volatile boolean answered;
+            private volatile boolean cancelled;
+
+            Attempt(ClientRequest request) {
+                this.request = request;
+            }
+
+            void send(InetAddress excludedAddress) {
+                connectionPool.getConnection(connection -> {
+                    if (isLoser()) {
+                        connection.done(false);
+                        return;
+                    }
+                    this.connection = connection;
+                    sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, this, this, expectedResponse, this::completed, allowNoContent, false, sslContext, classLoader, timeout, deadline);
+                    if (isLoser()) {
+                        // the other attempt won in the meantime
+                        cancel();
+                    }
+                }, this::handleFailure, priority, sslContext, timeout, latencyClass, excludedAddress);
+            }
+
+            private boolean isLoser() {
+                final Attempt winner = HedgedRequest.this.winner.get();
+                return winner != null && winner != this;
+            }
+
+            /**
+             * Closes the connection of this attempt, unless it was answered already or it is multiplexed.
+             */
+            void cancel() {
+                final HttpConnectionPool.ConnectionHandle connection = this.connection;
+                if (connection != null && !answered && !connection.getConnection().isMultiplexingSupported()) {
+                    // the connection fails the request, which must not be retried as if the connection was stale
+                    cancelled = true;
+                    connection.done(true);
+                }
+            }
+
+            @Override
+            public boolean isAbandoned() {
+                return cancelled;
+            }
+
+            @Override
+            public void handleResult(InputStream result, ClientResponse response, Closeable doneCallback) {
+                answered = true;
+                synchronized (HedgedRequest.this) {
+                    pending--;
+                }
+                if (!winner.compareAndSet(null, this)) {
+                    // the other attempt was answered first
+                    IoUtils.safeClose(result);
+                    IoUtils.safeClose(doneCallback);
+                    return;
+                }
+                hedgingPolicy.record(System.nanoTime() - started);
+                decided(this);
+                if (httpResultHandler != null) {
+                    httpResultHandler.handleResult(result, response, doneCallback);
+                } else {
+                    IoUtils.safeClose(result);
+                    IoUtils.safeClose(doneCallback);
+                }
+            }
+
+            @Override
+            public void handleFailure(Throwable throwable) {
+                answered = true;
+                synchronized (HedgedRequest.this) {
+                    pending--;
+                    if (winner.get() != null || pending > 0) {
+                        // the other attempt was answered first, or may still be
+                        return;
+                    }
+                    winner.set(this);
+                }
+                decided(this);
+                failureHandler.handleFailure(throwable);
+            }
+
+            private void completed() {
+                if (winner.get() == this && completedTask != null) {
+                    completedTask.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marshals the body of a hedged request once, the first time an attempt sends it, and replays the marshalled
+     * bytes for the other attempt, so that the marshaller never runs twice or concurrently.
+     */
+    private static final class BufferedMarshaller implements HttpMarshaller {
+        private final HttpMarshaller delegate;
+        // guarded by this
+        private byte[] body;
+
+        BufferedMarshaller(HttpMarshaller delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void marshall(OutputStream output) throws Exception {
+            final byte[] body;
+            synchronized (this) {
+                if (this.body == null) {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    delegate.marshall(bytes);
+                    this.body = bytes.toByteArray();
+                }
+                body = this.body;
+            }
+            output.write(body);
+        }
+    }
 }
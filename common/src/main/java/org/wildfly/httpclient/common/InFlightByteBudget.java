@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+
+/**
+ * Counts the bytes of the pooled buffers held by the request and response streams of a target, so that new requests
+ * can be rejected while the requests in flight hold too much memory.
+ */
+final class InFlightByteBudget {
+
+    private static final AtomicIntegerFieldUpdater<TrackedBuffer> closedUpdater = AtomicIntegerFieldUpdater.newUpdater(TrackedBuffer.class, "closed");
+
+    private final long maxBytes;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes the number of bytes above which the budget is exhausted, or {@code 0} for no limit
+     */
+    InFlightByteBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    boolean isExhausted() {
+        return maxBytes > 0 && inFlightBytes.get() >= maxBytes;
+    }
+
+    /**
+     * Returns a buffer pool that counts the buffers allocated from {@code pool} against this budget until they are
+     * closed.
+     *
+     * @param pool the buffer pool of a connection
+     * @return the counting pool, or {@code pool} itself if this budget has no limit
+     */
+    ByteBufferPool track(ByteBufferPool pool) {
+        return maxBytes > 0 ? new TrackingPool(pool) : pool;
+    }
+
+    private final class TrackingPool implements ByteBufferPool {
+        private final ByteBufferPool delegate;
+
+        TrackingPool(ByteBufferPool delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PooledByteBuffer allocate() {
+            final PooledByteBuffer buffer = delegate.allocate();
+            final int size = buffer.getBuffer().capacity();
+            inFlightBytes.addAndGet(size);
+            return new TrackedBuffer(buffer, size);
+        }
+
+        @Override
+        public ByteBufferPool getArrayBackedPool() {
+            return delegate.getArrayBackedPool();
+        }
+
+        @Override
+        public void close() {
+            // the pool is shared with the connections, it is not closed by the streams
+        }
+
+        @Override
+        public int getBufferSize() {
+            return delegate.getBufferSize();
+        }
+
+        @Override
+        public boolean isDirect() {
+            return delegate.isDirect();
+        }
+    }
+
+    private final class TrackedBuffer implements PooledByteBuffer {
+        private final PooledByteBuffer delegate;
+        private final int size;
+        @SuppressWarnings("unused")
+        private volatile int closed;
+
+        TrackedBuffer(PooledByteBuffer delegate, int size) {
+            this.delegate = delegate;
+            this.size = size;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return delegate.getBuffer();
+        }
+
+        @Override
+        public void close() {
+            if (closedUpdater.compareAndSet(this, 0, 1)) {
+                inFlightBytes.addAndGet(-size);
+                delegate.close();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return closed == 0;
+        }
+    }
+}
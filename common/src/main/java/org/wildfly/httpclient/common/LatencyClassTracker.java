@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the latency of the invocations of a connection pool per latency class, typically the method they invoke.
+ * A class is slow if the moving average of its latency is well above the typical latency of all the invocations, so
+ * that the pool can cap the share of its connections held by slow classes. The typical latency is a moving geometric
+ * mean, which a few very slow invocations do not drag up the way they drag up an arithmetic mean.
+ */
+final class LatencyClassTracker {
+
+    // below this latency, a class is never slow
+    private static final long MIN_SLOW_LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+    // how many times slower than the typical invocation a class must be to be slow
+    private static final double SLOW_FACTOR = 10;
+    // the weight of the last invocation in the moving average of its class
+    private static final double LATENCY_WEIGHT = 0.2;
+    // the weight of the last invocation in the moving geometric mean of all the invocations
+    private static final double TYPICAL_LATENCY_WEIGHT = 0.05;
+    // the classes seen after that many are not tracked, and never slow
+    private static final int MAX_CLASSES = 1024;
+
+    private final Map<String, LatencyClass> classes = new ConcurrentHashMap<>();
+    // moving average of the logarithm of the latency of all the invocations, 0 until the first one
+    private volatile double logLatencyEwma;
+
+    /**
+     * Indicates if a latency class is slow.
+     *
+     * @param latencyClass the latency class, may be {@code null}
+     * @return {@code true} if the class is slow
+     */
+    boolean isSlow(String latencyClass) {
+        if (latencyClass == null) {
+            return false;
+        }
+        final LatencyClass stats = classes.get(latencyClass);
+        return stats != null && stats.slow;
+    }
+
+    /**
+     * Records the latency of an invocation.
+     *
+     * @param latencyClass the latency class of the invocation, may be {@code null}
+     * @param latencyNanos the latency of the invocation in nanoseconds
+     */
+    void record(String latencyClass, long latencyNanos) {
+        // racy by design, a lost sample does not matter for a moving average
+        final double log = Math.log(Math.max(1, latencyNanos));
+        final double logEwma = logLatencyEwma;
+        final double typicalLog = logEwma == 0 ? log : logEwma + (log - logEwma) * TYPICAL_LATENCY_WEIGHT;
+        logLatencyEwma = typicalLog;
+        if (latencyClass == null) {
+            return;
+        }
+        LatencyClass stats = classes.get(latencyClass);
+        if (stats == null) {
+            if (classes.size() >= MAX_CLASSES) {
+                return;
+            }
+            stats = classes.computeIfAbsent(latencyClass, key -> new LatencyClass());
+        }
+        final double classEwma = stats.latencyEwma;
+        final double latency = classEwma == 0 ? latencyNanos : classEwma + (latencyNanos - classEwma) * LATENCY_WEIGHT;
+        stats.latencyEwma = latency;
+        stats.slow = latency >= Math.max(MIN_SLOW_LATENCY, SLOW_FACTOR * Math.exp(typicalLog));
+    }
+
+    private static final class LatencyClass {
+        volatile double latencyEwma;
+        volatile boolean slow;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.xnio.IoUtils;
+
+/**
+ * Output stream of a request body that holds the body back as long as it fits in a threshold, so the request can be
+ * sent with an exact {@code Content-Length} and the whole body in a single write once the body is complete. A body
+ * that outgrows the threshold is sent chunked, starting with the bytes held back so far.
+ * <p>
+ * A body that was held back is only sent by {@link #finish()}, once the body was marshalled successfully, closing the
+ * stream does not send it. If marshalling fails, {@link #abort()} drops it, and the request is never sent.
+ */
+final class RequestBodyOutputStream extends OutputStream {
+
+    private static final int INITIAL_SIZE = 512;
+
+    private final int threshold;
+    private final RequestSender sender;
+    private byte[] buffer;
+    private int count;
+    // the stream of the request once it was sent
+    private OutputStream out;
+    private boolean closed;
+    private boolean requestSent;
+
+    RequestBodyOutputStream(int threshold, RequestSender sender) {
+        this.threshold = threshold;
+        this.sender = sender;
+        this.buffer = new byte[Math.min(INITIAL_SIZE, threshold)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (out == null && count < threshold && !closed) {
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) b;
+            return;
+        }
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        if (out == null) {
+            if (len <= threshold - count) {
+                ensureCapacity(count + len);
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            out = send(-1);
+            out.write(buffer, 0, count);
+            buffer = null;
+        }
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+    }
+
+    /**
+     * Closes this stream. A body that outgrew the threshold is complete, a body that was held back is only sent by
+     * {@link #finish()}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Completes the body once it was marshalled successfully, sending the request if the body was held back.
+     */
+    void finish() throws IOException {
+        if (out == null && buffer == null) {
+            // aborted
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        if (out == null) {
+            closed = true;
+            out = send(count);
+            out.write(buffer, 0, count);
+            buffer = null;
+            out.close();
+        } else {
+            close();
+        }
+    }
+
+    /**
+     * Drops the body because marshalling failed. A request whose body was held back is never sent. The body of a
+     * request that was already sent chunked is ended where it is, the server fails to read it.
+     */
+    void abort() {
+        buffer = null;
+        if (!closed) {
+            closed = true;
+            if (out != null) {
+                IoUtils.safeClose(out);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the request was sent, or an attempt to send it was made
+     */
+    boolean isRequestSent() {
+        return requestSent;
+    }
+
+    private OutputStream send(long contentLength) throws IOException {
+        requestSent = true;
+        return sender.send(contentLength);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(threshold, Math.max(capacity, buffer.length << 1)));
+        }
+    }
+
+    interface RequestSender {
+
+        /**
+         * Sends the request, and returns the stream its body is written to.
+         *
+         * @param contentLength the length of the body, or {@code -1} if the body is sent chunked
+         */
+        OutputStream send(long contentLength) throws IOException;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+/**
+ * The budget of the requests retried on a new connection because the pooled connection they were given turned out
+ * to be stale. Each request deposits a fraction of a token and each retry spends a whole one, so that retries stay a
+ * small share of the requests even when the target keeps closing connections, while a burst of stale connections
+ * after a quiet period is covered by the tokens saved up.
+ */
+final class RetryBudget {
+
+    // the share of the requests that can be retried
+    private static final double TOKENS_PER_REQUEST = 0.1;
+    // the retries that can be spent in a burst
+    private static final double MAX_TOKENS = 10;
+
+    private double tokens = MAX_TOKENS;
+
+    /**
+     * Accounts a new request in the budget.
+     */
+    synchronized void requestStarted() {
+        tokens = Math.min(MAX_TOKENS, tokens + TOKENS_PER_REQUEST);
+    }
+
+    /**
+     * Spends the budget of a retry.
+     *
+     * @return {@code false} if the budget is exhausted
+     */
+    synchronized boolean tryRetry() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
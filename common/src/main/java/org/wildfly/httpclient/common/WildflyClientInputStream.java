@@ -18,14 +18,13 @@
 
 package org.wildfly.httpclient.common;
 
-import static org.xnio.Bits.allAreClear;
-import static org.xnio.Bits.anyAreSet;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
 
-import org.wildfly.common.Assert;
+import org.jboss.marshalling.ByteInput;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.channels.StreamSourceChannel;
@@ -33,69 +32,83 @@ import org.xnio.channels.StreamSourceChannel;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 
-class WildflyClientInputStream extends InputStream {
-    private final Object lock = new Object();
+/**
+ * The stream of a response body, which reads the pooled buffers of the response channel. It is also a
+ * {@link ByteInput}, so that responses are unmarshalled straight from the pooled buffers, without an adapter.
+ * <p>
+ * The IO thread reads ahead of the reader, up to a window of pooled buffers, and only suspends the reads of the
+ * channel once the window is full. The buffers are handed over to the reader through a single-producer
+ * single-consumer ring, without locking: the IO thread is the only one to publish buffers, and the reader, which
+ * must be a single thread at a time, the only one to take them.
+ */
+class WildflyClientInputStream extends InputStream implements ByteInput {
     private final ByteBufferPool bufferPool;
     private final StreamSourceChannel channel;
 
-    private PooledByteBuffer pooledByteBuffer;
-    private IOException ioException;
+    // the read-ahead window, indexed by the counters modulo its length
+    private final PooledByteBuffer[] window;
+    // the number of buffers taken by the reader, only written by the reader
+    private volatile long taken;
+    // the number of buffers published by the IO thread, only written by the IO thread
+    private volatile long published;
+    // the whole response was published
+    private volatile boolean lastPublished;
+    private volatile IOException ioException;
+    // the reader waiting for a buffer, if any
+    private volatile Thread waiter;
+
+    // the buffer being read, only accessed by the reader
+    private PooledByteBuffer current;
+    // only accessed by the reader
     private int state;
     private static final int FLAG_CLOSED = 1;
     private static final int FLAG_MINUS_ONE_READ = 1 << 2;
 
+    // runs in the IO thread
     private final ChannelListener<StreamSourceChannel> channelListener = new ChannelListener<StreamSourceChannel>() {
         @Override
         public void handleEvent(StreamSourceChannel streamSourceChannel) {
-            synchronized (lock) {
-                if (pooledByteBuffer != null) {
-                    return;
+            for (; ; ) {
+                if (published - taken >= window.length) {
+                    streamSourceChannel.suspendReads();
+                    if (published - taken >= window.length) {
+                        // resumed by the reader once it takes a buffer
+                        return;
+                    }
+                    // the reader took a buffer in the meantime
+                    streamSourceChannel.resumeReads();
                 }
-                boolean free = true;
                 final PooledByteBuffer pooled = bufferPool.allocate();
+                final ByteBuffer buffer = pooled.getBuffer();
+                int res;
                 try {
-                    for (; ; ) {
-                        int res = streamSourceChannel.read(pooled.getBuffer());
-                        if (res == 0) {
-                            pooled.getBuffer().flip();
-                            if (pooled.getBuffer().hasRemaining()) {
-                                pooledByteBuffer = pooled;
-                                free = false;
-                                streamSourceChannel.suspendReads();
-                            }
-                            lock.notifyAll();
-                            return;
-                        }
-                        if (res == -1) {
-                            pooled.getBuffer().flip();
-                            if (pooled.getBuffer().hasRemaining()) {
-                                pooledByteBuffer = pooled;
-                                free = false;
-                                streamSourceChannel.suspendReads();
-                            }
-                            state |= FLAG_MINUS_ONE_READ;
-                            lock.notifyAll();
-                            return;
-                        } else if (!pooled.getBuffer().hasRemaining()) {
-                            pooled.getBuffer().flip();
-                            pooledByteBuffer = pooled;
-                            free = false;
-                            lock.notifyAll();
-                            streamSourceChannel.suspendReads();
-                            return;
-                        }
-                    }
+                    do {
+                        res = streamSourceChannel.read(buffer);
+                    } while (res > 0 && buffer.hasRemaining());
                 } catch (IOException e) {
+                    pooled.close();
                     ioException = e;
-                    if (pooledByteBuffer != null) {
-                        pooledByteBuffer.close();
-                        pooledByteBuffer = null;
-                    }
-                    lock.notifyAll();
-                } finally {
-                    if (free) {
-                        pooled.close();
-                    }
+                    streamSourceChannel.suspendReads();
+                    wakeUpReader();
+                    return;
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    window[(int) (published % window.length)] = pooled;
+                    published++;
+                } else {
+                    pooled.close();
+                }
+                if (res == -1) {
+                    lastPublished = true;
+                    streamSourceChannel.suspendReads();
+                    wakeUpReader();
+                    return;
+                }
+                wakeUpReader();
+                if (res == 0) {
+                    // wait for more data
+                    return;
                 }
             }
         }
@@ -103,18 +116,35 @@ class WildflyClientInputStream extends InputStream {
 
 
     WildflyClientInputStream(ByteBufferPool bufferPool, StreamSourceChannel channel) {
+        this(bufferPool, channel, 1);
+    }
+
+    /**
+     * @param readAheadBuffers the maximum number of buffers read ahead of the reader
+     */
+    WildflyClientInputStream(ByteBufferPool bufferPool, StreamSourceChannel channel, int readAheadBuffers) {
         this.bufferPool = bufferPool;
         this.channel = channel;
+        this.window = new PooledByteBuffer[Math.max(1, readAheadBuffers)];
+        channel.getReadSetter().set(channelListener);
+        channel.resumeReads();
+    }
+
+    private void wakeUpReader() {
+        final Thread waiter = this.waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
     }
 
     @Override
     public int read() throws IOException {
-        byte[] b = new byte[1];
-        int res = read(b);
-        if (res == 1) {
-            return b[0] & 0xFF;
+        if (!awaitBuffer()) {
+            return -1;
         }
-        return res;
+        final int b = current.getBuffer().get() & 0xFF;
+        freeIfConsumed();
+        return b;
     }
 
     @Override
@@ -124,83 +154,144 @@ class WildflyClientInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        synchronized (lock) {
-            if (len < 1) {
-                return 0;
-            }
-            if (Thread.currentThread() == channel.getIoThread()) {
-                throw HttpClientMessages.MESSAGES.blockingIoFromIOThread();
-            }
-            if (anyAreSet(state, FLAG_CLOSED) && !anyAreSet(state, FLAG_MINUS_ONE_READ)) {
-                throw HttpClientMessages.MESSAGES.streamIsClosed();
-            }
+        if (len < 1) {
+            return 0;
+        }
+        if (!awaitBuffer()) {
+            return -1;
+        }
+        int toRead = Math.min(current.getBuffer().remaining(), len);
+        current.getBuffer().get(b, off, toRead);
+        freeIfConsumed();
+        return toRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !awaitBuffer()) {
+            return 0;
+        }
+        final ByteBuffer buffer = current.getBuffer();
+        final int toSkip = (int) Math.min(buffer.remaining(), n);
+        buffer.position(buffer.position() + toSkip);
+        freeIfConsumed();
+        return toSkip;
+    }
+
+    /**
+     * Waits until a buffer of the response can be read.
+     *
+     * @return {@code false} if the whole response was read
+     */
+    private boolean awaitBuffer() throws IOException {
+        if (current != null) {
+            return true;
+        }
+        if (Thread.currentThread() == channel.getIoThread()) {
+            throw HttpClientMessages.MESSAGES.blockingIoFromIOThread();
+        }
+        if (anyAreSet(FLAG_CLOSED) && !anyAreSet(FLAG_MINUS_ONE_READ)) {
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        current = takeBuffer();
+        if (current == null) {
+            state |= FLAG_MINUS_ONE_READ | FLAG_CLOSED;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next buffer published by the IO thread, waiting for it if needed.
+     *
+     * @return the buffer, or {@code null} if the whole response was read
+     */
+    private PooledByteBuffer takeBuffer() throws IOException {
+        for (; ; ) {
+            final IOException ioException = this.ioException;
             if (ioException != null) {
                 throw new IOException(ioException);
             }
-            while (pooledByteBuffer == null) {
-                if (anyAreSet(state, FLAG_MINUS_ONE_READ)) {
-                    state |= FLAG_CLOSED;
-                    return -1;
-                }
-                runReadTask();
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    throw new InterruptedIOException(e.getMessage());
-                }
-                if (ioException != null) {
-                    throw new IOException(ioException);
+            // read before the published counter, the last buffer is published before
+            final boolean last = lastPublished;
+            final long taken = this.taken;
+            if (published - taken > 0) {
+                final int index = (int) (taken % window.length);
+                final PooledByteBuffer buffer = window[index];
+                window[index] = null;
+                this.taken = taken + 1;
+                // checked after taking the buffer, otherwise the IO thread could fill the window and suspend the reads
+                // unnoticed in between
+                if (published - taken >= window.length && !lastPublished) {
+                    // the window was full, the IO thread may have suspended the reads
+                    channel.resumeReads();
                 }
+                return buffer;
+            }
+            if (last) {
+                return null;
+            }
+            waiter = Thread.currentThread();
+            if (published == taken && !lastPublished && this.ioException == null) {
+                LockSupport.park(this);
             }
-            int toRead = Math.min(pooledByteBuffer.getBuffer().remaining(), len);
-            pooledByteBuffer.getBuffer().get(b, off, toRead);
-            if (!pooledByteBuffer.getBuffer().hasRemaining()) {
-                pooledByteBuffer.close();
-                pooledByteBuffer = null;
+            waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
             }
-            return toRead;
         }
+    }
 
+    private void freeIfConsumed() {
+        if (!current.getBuffer().hasRemaining()) {
+            current.close();
+            current = null;
+        }
     }
 
-    private void runReadTask() {
-        Assert.assertTrue(pooledByteBuffer == null);
-        channel.getReadSetter().set(channelListener);
-        channel.resumeReads();
+    private boolean anyAreSet(int flags) {
+        return (state & flags) != 0;
     }
 
     @Override
     public int available() throws IOException {
-        synchronized (lock) {
-            if (pooledByteBuffer != null) {
-                return pooledByteBuffer.getBuffer().remaining();
-            }
+        if (current != null) {
+            return current.getBuffer().remaining();
+        }
+        if (published - taken > 0) {
+            final PooledByteBuffer next = window[(int) (taken % window.length)];
+            return next == null ? 0 : next.getBuffer().remaining();
         }
         return 0;
     }
 
     @Override
     public void close() throws IOException {
-        if (anyAreSet(state, FLAG_CLOSED)) {
+        if (anyAreSet(FLAG_CLOSED)) {
             return;
         }
-        synchronized (lock) {
-            IoUtils.safeClose(pooledByteBuffer);
-            pooledByteBuffer = null;
-            while (allAreClear(state, FLAG_MINUS_ONE_READ) && ioException == null) {
-                runReadTask();
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    IoUtils.safeClose(pooledByteBuffer, channel);
-                    throw new InterruptedIOException(e.getMessage());
-                }
-                IoUtils.safeClose(pooledByteBuffer);
-                pooledByteBuffer = null;
-            }
-            if (ioException != null) {
-                throw new IOException(ioException);
+        state |= FLAG_CLOSED;
+        IoUtils.safeClose(current);
+        current = null;
+        // drain the rest of the response, so that the connection can be reused
+        try {
+            PooledByteBuffer buffer;
+            while ((buffer = takeBuffer()) != null) {
+                buffer.close();
             }
+        } catch (InterruptedIOException e) {
+            IoUtils.safeClose(channel);
+            freeWindow();
+            throw e;
+        } catch (IOException e) {
+            freeWindow();
+            throw e;
+        }
+    }
+
+    private void freeWindow() {
+        for (long i = taken; published - i > 0; ++i) {
+            IoUtils.safeClose(window[(int) (i % window.length)]);
         }
     }
 }
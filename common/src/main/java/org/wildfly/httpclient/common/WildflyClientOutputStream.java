@@ -26,6 +26,8 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 import org.jboss.marshalling.ByteOutput;
 import org.wildfly.common.Assert;
@@ -38,8 +40,11 @@ import io.undertow.connector.PooledByteBuffer;
 /**
  * Buffering output stream that wraps a channel.
  * <p>
- * This stream delays channel creation, so if a response will fit in the buffer it is not necessary to
- * set the content length header.
+ * The request is sent before the stream is created, bodies small enough to be sent with a content length are held
+ * back by {@link RequestBodyOutputStream} instead.
+ * <p>
+ * Full buffers are queued and written behind the writing thread by the IO thread, with a single gathering write for
+ * all the queued buffers, so the writing thread only blocks when the queue holds the maximum number of buffers.
  *
  * @author Stuart Douglas
  */
@@ -47,8 +52,13 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
 
     private final Object lock = new Object();
 
+    // the buffer being filled, only accessed by the writing thread
     private PooledByteBuffer pooledBuffer;
-    private IOException ioException;
+    // the full buffers, ready to be read, that wait to be written to the channel
+    private final ArrayDeque<PooledByteBuffer> queued;
+    private final ByteBuffer[] writeBatch;
+    private final int maxQueuedBuffers;
+    private volatile IOException ioException;
     private final StreamSinkChannel channel;
     private final ByteBufferPool bufferPool;
     private int state;
@@ -66,49 +76,46 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
                 }
                 try {
                     boolean closed = anyAreSet(state, FLAG_CLOSED);
-                    if (pooledBuffer != null) {
-                        pooledBuffer.getBuffer().flip();
-                    }
-                    if (closed && (pooledBuffer == null || !pooledBuffer.getBuffer().hasRemaining())) {
-                        if (pooledBuffer != null) {
-                            pooledBuffer.close();
-                            pooledBuffer = null;
+                    while (!queued.isEmpty()) {
+                        int count = 0;
+                        for (PooledByteBuffer buffer : queued) {
+                            writeBatch[count++] = buffer.getBuffer();
+                        }
+                        long res;
+                        try {
+                            if (closed) {
+                                res = streamSinkChannel.writeFinal(writeBatch, 0, count);
+                            } else {
+                                res = streamSinkChannel.write(writeBatch, 0, count);
+                            }
+                        } finally {
+                            Arrays.fill(writeBatch, 0, count, null);
                         }
-                        //if we are just flushing the data
+                        while (!queued.isEmpty() && !queued.peekFirst().getBuffer().hasRemaining()) {
+                            queued.pollFirst().close();
+                            lock.notifyAll();
+                        }
+                        if (res == 0) {
+                            // the queued buffers keep their position, the listener resumes from there
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        streamSinkChannel.shutdownWrites();
                         if (streamSinkChannel.flush()) {
+                            streamSinkChannel.suspendWrites();
                             state |= FLAG_DONE;
                             state &= ~FLAG_WRITING;
                             lock.notifyAll();
-                            streamSinkChannel.shutdownWrites();
                         }
                     } else {
-                        while (pooledBuffer.getBuffer().hasRemaining()) {
-                            int res;
-                            if (closed) {
-                                res = streamSinkChannel.writeFinal(pooledBuffer.getBuffer());
-                            } else {
-                                res = streamSinkChannel.write(pooledBuffer.getBuffer());
-                            }
-                            if (res == 0) {
-                                pooledBuffer.getBuffer().compact(); // WEJBHTTP-50 compact the buffer to be able to flip it when listener is invoked again
-                                return;
-                            }
-                        }
-                        lock.notifyAll();
                         streamSinkChannel.suspendWrites();
                         state &= ~FLAG_WRITING;
-                        pooledBuffer.close();
-                        pooledBuffer = null;
-                        if (closed) {
-                            if (streamSinkChannel.flush()) {
-                                state |= FLAG_DONE;
-                            }
-                        }
                     }
                 } catch (IOException e) {
-                    if (pooledBuffer != null) {
-                        pooledBuffer.close();
-                        pooledBuffer = null;
+                    PooledByteBuffer buffer;
+                    while ((buffer = queued.pollFirst()) != null) {
+                        buffer.close();
                     }
                     state &= ~FLAG_WRITING;
                     ioException = e;
@@ -119,8 +126,19 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
     };
 
     WildflyClientOutputStream(StreamSinkChannel channel, ByteBufferPool byteBufferPool) {
+        this(channel, byteBufferPool, 1);
+    }
+
+    /**
+     * @param maxQueuedBuffers the maximum number of full buffers waiting to be written before the writing thread
+     *                         blocks
+     */
+    WildflyClientOutputStream(StreamSinkChannel channel, ByteBufferPool byteBufferPool, int maxQueuedBuffers) {
         this.channel = channel;
         this.bufferPool = byteBufferPool;
+        this.maxQueuedBuffers = Math.max(1, maxQueuedBuffers);
+        this.queued = new ArrayDeque<>(this.maxQueuedBuffers);
+        this.writeBatch = new ByteBuffer[this.maxQueuedBuffers];
     }
 
     /**
@@ -150,43 +168,60 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
         if (anyAreSet(state, FLAG_CLOSED)) {
             throw HttpClientMessages.MESSAGES.streamIsClosed();
         }
+        if (ioException != null) {
+            throw new IOException(ioException);
+        }
         int currentOff = off;
         int currentLen = len;
-        synchronized (lock) {
-            for (; ; ) {
-                while (anyAreSet(state, FLAG_WRITING) && ioException == null) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        throw new InterruptedIOException(e.getMessage());
-                    }
-                }
-                if (ioException != null) {
-                    throw new IOException(ioException);
+        for (; ; ) {
+            // the buffer being filled is not shared with the IO thread, it is filled while queued buffers are written
+            ByteBuffer buffer = buffer();
+            if (buffer.remaining() < currentLen) {
+                int put = buffer.remaining();
+                buffer.put(b, currentOff, put);
+                currentOff += put;
+                currentLen -= put;
+                queueBuffer();
+            } else {
+                buffer.put(b, currentOff, currentLen);
+                if (buffer.remaining() == 0) {
+                    queueBuffer();
                 }
+                return;
+            }
+        }
+    }
 
-                ByteBuffer buffer = buffer();
-                if (buffer.remaining() < currentLen) {
-                    int put = buffer.remaining();
-                    buffer.put(b, currentOff, buffer.remaining());
-                    currentOff += put;
-                    currentLen -= put;
-                    runWriteTask();
-                } else {
-                    buffer.put(b, currentOff, currentLen);
-                    if (buffer.remaining() == 0) {
-                        runWriteTask();
-                    }
-                    return;
+    /**
+     * Hands the buffer being filled to the IO thread, waiting for room in the queue if it is full.
+     */
+    private void queueBuffer() throws IOException {
+        synchronized (lock) {
+            while (queued.size() >= maxQueuedBuffers && ioException == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
                 }
             }
-
-
+            if (ioException != null) {
+                pooledBuffer.close();
+                pooledBuffer = null;
+                throw new IOException(ioException);
+            }
+            pooledBuffer.getBuffer().flip();
+            queued.addLast(pooledBuffer);
+            pooledBuffer = null;
+            runWriteTask();
         }
     }
 
     private void runWriteTask() {
         Assert.assertHoldsLock(lock);
+        if (anyAreSet(state, FLAG_WRITING)) {
+            // the listener is already draining the queue and picks up the new buffer
+            return;
+        }
         state |= FLAG_WRITING;
         channel.getWriteSetter().set(channelListener);
         channel.wakeupWrites();
@@ -205,11 +240,19 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
      * {@inheritDoc}
      */
     public void close() throws IOException {
+        if (anyAreSet(state, FLAG_CLOSED)) return;
+        if (pooledBuffer != null) {
+            if (pooledBuffer.getBuffer().position() > 0) {
+                queueBuffer();
+            } else {
+                pooledBuffer.close();
+                pooledBuffer = null;
+            }
+        }
         synchronized (lock) {
             if (ioException != null) {
                 throw new IOException(ioException);
             }
-            if (anyAreSet(state, FLAG_CLOSED)) return;
             state |= FLAG_CLOSED;
             runWriteTask();
             while (allAreClear(state, FLAG_DONE) && ioException != null) {
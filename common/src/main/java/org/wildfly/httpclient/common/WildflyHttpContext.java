@@ -23,16 +23,26 @@ import io.undertow.connector.ByteBufferPool;
 import io.undertow.server.DefaultByteBufferPool;
 import org.wildfly.common.context.ContextManager;
 import org.wildfly.common.context.Contextual;
+import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.XnioWorker;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.security.AccessController.doPrivileged;
 
@@ -45,6 +55,9 @@ import static java.security.AccessController.doPrivileged;
 public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
 
     private static final int LEAK_DETECTION = Integer.getInteger("org.wildfly.http-client.buffer-leak-detection", 0);
+    // the server sessions expire after 30 minutes by default, the affinity of an unused target is lost by then anyway
+    private static final long DEFAULT_TARGET_IDLE_TIMEOUT = 30 * 60 * 1000;
+    private static final long MAX_EVICTION_INTERVAL = 60 * 1000;
 
     /**
      * The context manager for HTTP endpoints.
@@ -56,10 +69,25 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
     });
 
     /**
-     * TODO: figure out some way to remove these when all the connections are closed, it has the potential to be very racey
+     * The target contexts in use. The contexts of targets that are not configured are evicted once they have been
+     * unused for {@code targetIdleTimeout}.
      */
     private final Map<URI, HttpTargetContext> uriConnectionPools = new ConcurrentHashMap<>();
 
+    /**
+     * The connection pools of the targets that are not configured, per scheme, host and port. The targets with the
+     * same authority share the connections to it, each one keeping its own path, affinity and authentication state.
+     * Guarded by this.
+     */
+    private final Map<URI, HttpConnectionPool> sharedPools = new HashMap<>();
+
+    /**
+     * The contexts that were evicted, but may still be held by their callers, such as the transaction handles. Their
+     * connection pools are only closed once the contexts are garbage collected.
+     */
+    private final Set<EvictedContext> evictedContexts = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<HttpTargetContext> collectedContexts = new ReferenceQueue<>();
+
     private final ConfigSection[] targets;
 
     private final int maxConnections;
@@ -68,11 +96,13 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
     private final boolean eagerlyAcquireAffinity;
     private final XnioWorker worker;
     private final ByteBufferPool pool;
-    private final boolean enableHttp2;
+    private final OptionMap options;
     private final HttpConnectionPoolFactory httpConnectionPoolFactory;
     private final HttpMarshallerFactoryProvider httpMarshallerFactoryProvider;
+    private final long targetIdleTimeout;
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
 
-    WildflyHttpContext(ConfigSection[] targets, int maxConnections, int maxStreamsPerConnection, long idleTimeout, boolean eagerlyAcquireAffinity, XnioWorker worker, ByteBufferPool pool, boolean enableHttp2,
+    WildflyHttpContext(ConfigSection[] targets, int maxConnections, int maxStreamsPerConnection, long idleTimeout, boolean eagerlyAcquireAffinity, XnioWorker worker, ByteBufferPool pool, OptionMap options,
                        HttpConnectionPoolFactory httpConnectionPoolFactory, HttpMarshallerFactoryProvider httpMarshallerFactoryProvider) {
         this.targets = targets;
         this.maxConnections = maxConnections;
@@ -81,9 +111,10 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
         this.eagerlyAcquireAffinity = eagerlyAcquireAffinity;
         this.worker = worker;
         this.pool = pool;
-        this.enableHttp2 = enableHttp2;
+        this.options = options;
         this.httpConnectionPoolFactory = httpConnectionPoolFactory;
         this.httpMarshallerFactoryProvider = httpMarshallerFactoryProvider;
+        this.targetIdleTimeout = options.get(HttpClientOptions.TARGET_IDLE_TIMEOUT, DEFAULT_TARGET_IDLE_TIMEOUT);
     }
 
     public static WildflyHttpContext getCurrent() {
@@ -117,14 +148,137 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             if (context != null) {
                 return context;
             }
-            HttpConnectionPool pool = httpConnectionPoolFactory.createHttpConnectionPool(
-                    maxConnections, maxStreamsPerConnection, worker, this.pool, OptionMap.create(UndertowOptions.ENABLE_HTTP2, enableHttp2), new HostPool(uri), idleTimeout);
+            final URI authority = getAuthority(uri);
+            HttpConnectionPool pool = getConfiguredPool(authority);
+            if (pool == null) {
+                pool = sharedPools.get(authority);
+            }
+            if (pool == null) {
+                pool = httpConnectionPoolFactory.createHttpConnectionPool(
+                        maxConnections, maxStreamsPerConnection, worker, this.pool, options, new HostPool(uri, options.get(HttpClientOptions.LOAD_BALANCING), options.get(HttpClientOptions.DNS_TTL, 0L)), idleTimeout);
+                if (authority != null) {
+                    sharedPools.put(authority, pool);
+                }
+            }
             uriConnectionPools.put(uri, context = new HttpTargetContext(pool, eagerlyAcquireAffinity, uri, httpMarshallerFactoryProvider));
             context.init();
+            scheduleEviction();
             return context;
         }
     }
 
+    /**
+     * @return the scheme, host and port of {@code uri}, the key of its connection pool, or {@code null} if {@code uri}
+     * has no host
+     */
+    private static URI getAuthority(URI uri) {
+        if (uri.getHost() == null) {
+            return null;
+        }
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equals(uri.getScheme()) ? 443 : 80;
+        }
+        try {
+            return new URI(uri.getScheme(), null, uri.getHost().toLowerCase(Locale.ROOT), port, null, null, null);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the connection pool of a configured target with the given authority, if any
+     */
+    private HttpConnectionPool getConfiguredPool(URI authority) {
+        if (authority == null) {
+            return null;
+        }
+        for (ConfigSection target : targets) {
+            if (authority.equals(getAuthority(target.getUri()))) {
+                return target.getHttpTargetContext().getConnectionPool();
+            }
+        }
+        return null;
+    }
+
+    private void scheduleEviction() {
+        if (targetIdleTimeout > 0 && evictionScheduled.compareAndSet(false, true)) {
+            // closing the pools must not run in the timer thread
+            HashedWheelTimer.INSTANCE.schedule(() -> worker.execute(this::evictIdleTargets), Math.min(targetIdleTimeout, MAX_EVICTION_INTERVAL), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discards the contexts of the targets that are not configured and have been unused for {@code targetIdleTimeout}.
+     * The connection pool of an evicted context is closed once the context is garbage collected, unless other targets
+     * share it: a caller may have obtained the context before it was evicted, and keep using it.
+     */
+    private void evictIdleTargets() {
+        boolean remaining = false;
+        for (Map.Entry<URI, HttpTargetContext> entry : uriConnectionPools.entrySet()) {
+            final HttpTargetContext context = entry.getValue();
+            if (isConfigured(context)) {
+                continue;
+            }
+            if (context.getConnectionPool().isUnused(targetIdleTimeout, TimeUnit.MILLISECONDS) && uriConnectionPools.remove(entry.getKey(), context)) {
+                evictedContexts.add(new EvictedContext(context, collectedContexts));
+            } else {
+                remaining = true;
+            }
+        }
+        Reference<? extends HttpTargetContext> collected;
+        while ((collected = collectedContexts.poll()) != null) {
+            evictedContexts.remove(collected);
+            closeIfUnshared(((EvictedContext) collected).pool);
+        }
+        evictionScheduled.set(false);
+        if (remaining || !evictedContexts.isEmpty()) {
+            scheduleEviction();
+        }
+    }
+
+    private synchronized void closeIfUnshared(HttpConnectionPool pool) {
+        for (HttpTargetContext context : uriConnectionPools.values()) {
+            if (context.getConnectionPool() == pool) {
+                return;
+            }
+        }
+        for (ConfigSection target : targets) {
+            if (target.getHttpTargetContext().getConnectionPool() == pool) {
+                return;
+            }
+        }
+        for (EvictedContext evicted : evictedContexts) {
+            if (evicted.pool == pool && evicted.get() != null) {
+                // an evicted context still in use
+                return;
+            }
+        }
+        sharedPools.values().remove(pool);
+        IoUtils.safeClose(pool);
+    }
+
+    private boolean isConfigured(HttpTargetContext context) {
+        for (ConfigSection target : targets) {
+            if (target.getHttpTargetContext() == context) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An evicted context, which is enqueued once no caller holds it anymore.
+     */
+    private static final class EvictedContext extends WeakReference<HttpTargetContext> {
+        private final HttpConnectionPool pool;
+
+        EvictedContext(HttpTargetContext context, ReferenceQueue<HttpTargetContext> queue) {
+            super(context, queue);
+            this.pool = context.getConnectionPool();
+        }
+    }
+
     static class ConfigSection {
         private final HttpTargetContext httpTargetContext;
         private final URI uri;
@@ -148,6 +302,21 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
         private long idleTimeout = 50000; //the server defaults to an idle timeout of 60 seconds, we default ours to 50 to prevent possible races
         private int maxConnections;
         private int maxStreamsPerConnection;
+        private int minIdleConnections;
+        private long requestTimeout;
+        private HostPool.Strategy loadBalancing;
+        private long dnsTtl;
+        private long targetIdleTimeout = DEFAULT_TARGET_IDLE_TIMEOUT;
+        private Boolean adaptiveConcurrency;
+        private int hedgePercentile;
+        private int hedgeBudget;
+        private int maxPendingRequests;
+        private long maxInFlightBytes;
+        private long maxConnectionAge;
+        private Boolean h2cPriorKnowledge;
+        private int readAheadBuffers;
+        private int writeBehindBuffers;
+        private int maxBufferedBodySize;
         private Boolean eagerlyAcquireSession;
         private final List<HttpConfigBuilder> targets = new ArrayList<>();
         private Boolean enableHttp2;
@@ -181,7 +350,7 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             }
             for (int i = 0; i < this.targets.size(); ++i) {
                 HttpConfigBuilder sb = this.targets.get(i);
-                HostPool hp = new HostPool(sb.getUri());
+                HostPool hp = new HostPool(sb.getUri(), sb.getLoadBalancing() != null ? sb.getLoadBalancing() : loadBalancing, sb.getDnsTtl() > 0 ? sb.getDnsTtl() : dnsTtl);
                 boolean eager = this.eagerlyAcquireSession == null ? false : this.eagerlyAcquireSession;
                 if (sb.getEagerlyAcquireSession() != null && sb.getEagerlyAcquireSession()) {
                     eager = true;
@@ -190,14 +359,56 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
                 if(sb.getEnableHttp2() != null) {
                     http2 = sb.getEnableHttp2();
                 }
+                boolean adaptive = this.adaptiveConcurrency == null ? false : this.adaptiveConcurrency;
+                if (sb.getAdaptiveConcurrency() != null) {
+                    adaptive = sb.getAdaptiveConcurrency();
+                }
+                boolean h2cPrior = this.h2cPriorKnowledge == null ? false : this.h2cPriorKnowledge;
+                if (sb.getH2cPriorKnowledge() != null) {
+                    h2cPrior = sb.getH2cPriorKnowledge();
+                }
+                OptionMap options = OptionMap.builder()
+                        .set(UndertowOptions.ENABLE_HTTP2, http2)
+                        .set(HttpClientOptions.MIN_IDLE_CONNECTIONS, sb.getMinIdleConnections() > 0 ? sb.getMinIdleConnections() : minIdleConnections)
+                        .set(HttpClientOptions.REQUEST_TIMEOUT, sb.getRequestTimeout() > 0 ? sb.getRequestTimeout() : requestTimeout)
+                        .set(HttpClientOptions.ADAPTIVE_CONCURRENCY, adaptive)
+                        .set(HttpClientOptions.HEDGE_PERCENTILE, sb.getHedgePercentile() > 0 ? sb.getHedgePercentile() : hedgePercentile)
+                        .set(HttpClientOptions.HEDGE_BUDGET, sb.getHedgeBudget() > 0 ? sb.getHedgeBudget() : hedgeBudget > 0 ? hedgeBudget : 10)
+                        .set(HttpClientOptions.MAX_PENDING_REQUESTS, sb.getMaxPendingRequests() > 0 ? sb.getMaxPendingRequests() : maxPendingRequests)
+                        .set(HttpClientOptions.MAX_IN_FLIGHT_BYTES, sb.getMaxInFlightBytes() > 0 ? sb.getMaxInFlightBytes() : maxInFlightBytes)
+                        .set(HttpClientOptions.MAX_CONNECTION_AGE, sb.getMaxConnectionAge() > 0 ? sb.getMaxConnectionAge() : maxConnectionAge)
+                        .set(HttpClientOptions.H2C_PRIOR_KNOWLEDGE, h2cPrior)
+                        .set(HttpClientOptions.READ_AHEAD_BUFFERS, sb.getReadAheadBuffers() > 0 ? sb.getReadAheadBuffers() : readAheadBuffers > 0 ? readAheadBuffers : 4)
+                        .set(HttpClientOptions.WRITE_BEHIND_BUFFERS, sb.getWriteBehindBuffers() > 0 ? sb.getWriteBehindBuffers() : writeBehindBuffers > 0 ? writeBehindBuffers : 2)
+                        .set(HttpClientOptions.MAX_BUFFERED_BODY_SIZE, sb.getMaxBufferedBodySize() > 0 ? sb.getMaxBufferedBodySize() : maxBufferedBodySize > 0 ? maxBufferedBodySize : 8192)
+                        .getMap();
                 ConfigSection connection = new ConfigSection(new HttpTargetContext(
-                        httpConnectionPoolFactory.createHttpConnectionPool(sb.getMaxConnections() > 0 ? sb.getMaxConnections() : maxConnections, sb.getMaxStreamsPerConnection() > 0 ? sb.getMaxStreamsPerConnection() : maxStreamsPerConnection, worker, pool, OptionMap.create(UndertowOptions.ENABLE_HTTP2, http2),
+                        httpConnectionPoolFactory.createHttpConnectionPool(sb.getMaxConnections() > 0 ? sb.getMaxConnections() : maxConnections, sb.getMaxStreamsPerConnection() > 0 ? sb.getMaxStreamsPerConnection() : maxStreamsPerConnection, worker, pool, options,
                                 hp, sb.getIdleTimeout() > 0 ? sb.getIdleTimeout() : idleTimout), eager, sb.getUri(), httpMarshallerFactoryProvider),
                         sb.getUri());
                 connections[i] = connection;
             }
+            OptionMap.Builder defaultOptions = OptionMap.builder()
+                    .set(UndertowOptions.ENABLE_HTTP2, enableHttp2 == null ? true : enableHttp2)
+                    .set(HttpClientOptions.MIN_IDLE_CONNECTIONS, minIdleConnections)
+                    .set(HttpClientOptions.REQUEST_TIMEOUT, requestTimeout)
+                    .set(HttpClientOptions.DNS_TTL, dnsTtl)
+                    .set(HttpClientOptions.TARGET_IDLE_TIMEOUT, targetIdleTimeout)
+                    .set(HttpClientOptions.ADAPTIVE_CONCURRENCY, adaptiveConcurrency == null ? false : adaptiveConcurrency)
+                    .set(HttpClientOptions.HEDGE_PERCENTILE, hedgePercentile)
+                    .set(HttpClientOptions.HEDGE_BUDGET, hedgeBudget > 0 ? hedgeBudget : 10)
+                    .set(HttpClientOptions.MAX_PENDING_REQUESTS, maxPendingRequests)
+                    .set(HttpClientOptions.MAX_IN_FLIGHT_BYTES, maxInFlightBytes)
+                    .set(HttpClientOptions.MAX_CONNECTION_AGE, maxConnectionAge)
+                    .set(HttpClientOptions.H2C_PRIOR_KNOWLEDGE, h2cPriorKnowledge == null ? false : h2cPriorKnowledge)
+                    .set(HttpClientOptions.READ_AHEAD_BUFFERS, readAheadBuffers > 0 ? readAheadBuffers : 4)
+                    .set(HttpClientOptions.WRITE_BEHIND_BUFFERS, writeBehindBuffers > 0 ? writeBehindBuffers : 2)
+                    .set(HttpClientOptions.MAX_BUFFERED_BODY_SIZE, maxBufferedBodySize > 0 ? maxBufferedBodySize : 8192);
+            if (loadBalancing != null) {
+                defaultOptions.set(HttpClientOptions.LOAD_BALANCING, loadBalancing);
+            }
             return new WildflyHttpContext(connections, maxConnections, maxStreamsPerConnection, idleTimeout,
-                    eagerlyAcquireSession == null ? false : eagerlyAcquireSession, worker, pool, enableHttp2 == null ? true : enableHttp2,
+                    eagerlyAcquireSession == null ? false : eagerlyAcquireSession, worker, pool, defaultOptions.getMap(),
                     httpConnectionPoolFactory, httpMarshallerFactoryProvider);
         }
 
@@ -244,6 +455,126 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             this.maxStreamsPerConnection = maxStreamsPerConnection;
         }
 
+        int getMinIdleConnections() {
+            return minIdleConnections;
+        }
+
+        void setMinIdleConnections(int minIdleConnections) {
+            this.minIdleConnections = minIdleConnections;
+        }
+
+        long getRequestTimeout() {
+            return requestTimeout;
+        }
+
+        void setRequestTimeout(long requestTimeout) {
+            this.requestTimeout = requestTimeout;
+        }
+
+        HostPool.Strategy getLoadBalancing() {
+            return loadBalancing;
+        }
+
+        void setLoadBalancing(HostPool.Strategy loadBalancing) {
+            this.loadBalancing = loadBalancing;
+        }
+
+        long getDnsTtl() {
+            return dnsTtl;
+        }
+
+        void setDnsTtl(long dnsTtl) {
+            this.dnsTtl = dnsTtl;
+        }
+
+        long getTargetIdleTimeout() {
+            return targetIdleTimeout;
+        }
+
+        void setTargetIdleTimeout(long targetIdleTimeout) {
+            this.targetIdleTimeout = targetIdleTimeout;
+        }
+
+        Boolean getAdaptiveConcurrency() {
+            return adaptiveConcurrency;
+        }
+
+        void setAdaptiveConcurrency(Boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+        }
+
+        int getHedgePercentile() {
+            return hedgePercentile;
+        }
+
+        void setHedgePercentile(int hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+        }
+
+        int getHedgeBudget() {
+            return hedgeBudget;
+        }
+
+        void setHedgeBudget(int hedgeBudget) {
+            this.hedgeBudget = hedgeBudget;
+        }
+
+        int getMaxPendingRequests() {
+            return maxPendingRequests;
+        }
+
+        void setMaxPendingRequests(int maxPendingRequests) {
+            this.maxPendingRequests = maxPendingRequests;
+        }
+
+        long getMaxInFlightBytes() {
+            return maxInFlightBytes;
+        }
+
+        void setMaxInFlightBytes(long maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+        }
+
+        long getMaxConnectionAge() {
+            return maxConnectionAge;
+        }
+
+        void setMaxConnectionAge(long maxConnectionAge) {
+            this.maxConnectionAge = maxConnectionAge;
+        }
+
+        Boolean getH2cPriorKnowledge() {
+            return h2cPriorKnowledge;
+        }
+
+        void setH2cPriorKnowledge(Boolean h2cPriorKnowledge) {
+            this.h2cPriorKnowledge = h2cPriorKnowledge;
+        }
+
+        int getReadAheadBuffers() {
+            return readAheadBuffers;
+        }
+
+        void setReadAheadBuffers(int readAheadBuffers) {
+            this.readAheadBuffers = readAheadBuffers;
+        }
+
+        int getWriteBehindBuffers() {
+            return writeBehindBuffers;
+        }
+
+        void setWriteBehindBuffers(int writeBehindBuffers) {
+            this.writeBehindBuffers = writeBehindBuffers;
+        }
+
+        int getMaxBufferedBodySize() {
+            return maxBufferedBodySize;
+        }
+
+        void setMaxBufferedBodySize(int maxBufferedBodySize) {
+            this.maxBufferedBodySize = maxBufferedBodySize;
+        }
+
         Boolean getEagerlyAcquireSession() {
             return eagerlyAcquireSession;
         }
@@ -275,6 +606,20 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             private long idleTimeout;
             private int maxConnections;
             private int maxStreamsPerConnection;
+            private int minIdleConnections;
+            private long requestTimeout;
+            private HostPool.Strategy loadBalancing;
+            private long dnsTtl;
+            private Boolean adaptiveConcurrency;
+            private int hedgePercentile;
+            private int hedgeBudget;
+            private int maxPendingRequests;
+            private long maxInFlightBytes;
+            private long maxConnectionAge;
+            private Boolean h2cPriorKnowledge;
+            private int readAheadBuffers;
+            private int writeBehindBuffers;
+            private int maxBufferedBodySize;
             private Boolean eagerlyAcquireSession;
             private Boolean enableHttp2;
 
@@ -318,6 +663,118 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
                 this.maxStreamsPerConnection = maxStreamsPerConnection;
             }
 
+            int getMinIdleConnections() {
+                return minIdleConnections;
+            }
+
+            void setMinIdleConnections(int minIdleConnections) {
+                this.minIdleConnections = minIdleConnections;
+            }
+
+            long getRequestTimeout() {
+                return requestTimeout;
+            }
+
+            void setRequestTimeout(long requestTimeout) {
+                this.requestTimeout = requestTimeout;
+            }
+
+            HostPool.Strategy getLoadBalancing() {
+                return loadBalancing;
+            }
+
+            void setLoadBalancing(HostPool.Strategy loadBalancing) {
+                this.loadBalancing = loadBalancing;
+            }
+
+            long getDnsTtl() {
+                return dnsTtl;
+            }
+
+            void setDnsTtl(long dnsTtl) {
+                this.dnsTtl = dnsTtl;
+            }
+
+            Boolean getAdaptiveConcurrency() {
+                return adaptiveConcurrency;
+            }
+
+            void setAdaptiveConcurrency(Boolean adaptiveConcurrency) {
+                this.adaptiveConcurrency = adaptiveConcurrency;
+            }
+
+            int getHedgePercentile() {
+                return hedgePercentile;
+            }
+
+            void setHedgePercentile(int hedgePercentile) {
+                this.hedgePercentile = hedgePercentile;
+            }
+
+            int getHedgeBudget() {
+                return hedgeBudget;
+            }
+
+            void setHedgeBudget(int hedgeBudget) {
+                this.hedgeBudget = hedgeBudget;
+            }
+
+            int getMaxPendingRequests() {
+                return maxPendingRequests;
+            }
+
+            void setMaxPendingRequests(int maxPendingRequests) {
+                this.maxPendingRequests = maxPendingRequests;
+            }
+
+            long getMaxInFlightBytes() {
+                return maxInFlightBytes;
+            }
+
+            void setMaxInFlightBytes(long maxInFlightBytes) {
+                this.maxInFlightBytes = maxInFlightBytes;
+            }
+
+            long getMaxConnectionAge() {
+                return maxConnectionAge;
+            }
+
+            void setMaxConnectionAge(long maxConnectionAge) {
+                this.maxConnectionAge = maxConnectionAge;
+            }
+
+            Boolean getH2cPriorKnowledge() {
+                return h2cPriorKnowledge;
+            }
+
+            void setH2cPriorKnowledge(Boolean h2cPriorKnowledge) {
+                this.h2cPriorKnowledge = h2cPriorKnowledge;
+            }
+
+            int getReadAheadBuffers() {
+                return readAheadBuffers;
+            }
+
+            void setReadAheadBuffers(int readAheadBuffers) {
+                this.readAheadBuffers = readAheadBuffers;
+            }
+
+            int getWriteBehindBuffers() {
+                return writeBehindBuffers;
+            }
+
+            void setWriteBehindBuffers(int writeBehindBuffers) {
+                this.writeBehindBuffers = writeBehindBuffers;
+            }
+
+            int getMaxBufferedBodySize() {
+                return maxBufferedBodySize;
+            }
+
+            void setMaxBufferedBodySize(int maxBufferedBodySize) {
+                this.maxBufferedBodySize = maxBufferedBodySize;
+            }
+
             Boolean getEagerlyAcquireSession() {
                 return eagerlyAcquireSession;
             }
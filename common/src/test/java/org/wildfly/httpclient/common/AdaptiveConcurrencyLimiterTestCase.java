@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTestCase {
+
+    @Test
+    public void testLimitFollowsLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100);
+        Assert.assertEquals(10, limiter.getLimit());
+
+        // a steady latency with every permit in use lets the limit grow
+        sample(limiter, 200, TimeUnit.MILLISECONDS.toNanos(1), false);
+        final int grown = limiter.getLimit();
+        Assert.assertTrue(grown > 10);
+        Assert.assertTrue(grown <= 100);
+
+        // the latency climbs, the limit shrinks
+        sample(limiter, 20, TimeUnit.MILLISECONDS.toNanos(20), false);
+        final int shrunk = limiter.getLimit();
+        Assert.assertTrue(shrunk < grown);
+
+        // failures shrink the limit down to the minimum
+        sample(limiter, 200, TimeUnit.MILLISECONDS.toNanos(1), true);
+        Assert.assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testPermits() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertFalse(limiter.hasCapacity());
+        limiter.cancel();
+        Assert.assertTrue(limiter.hasCapacity());
+        Assert.assertTrue(limiter.tryAcquire());
+    }
+
+    private static void sample(AdaptiveConcurrencyLimiter limiter, int samples, long latencyNanos, boolean failed) {
+        for (int i = 0; i < samples; ++i) {
+            while (limiter.tryAcquire()) {
+                // use every permit
+            }
+            limiter.onSample(latencyNanos, failed);
+        }
+    }
+}
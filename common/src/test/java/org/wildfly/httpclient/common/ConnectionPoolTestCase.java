@@ -28,18 +28,24 @@ import io.undertow.util.Methods;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.wildfly.security.auth.client.AuthenticationConfiguration;
+import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.channels.Channels;
 
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -53,10 +59,20 @@ public class ConnectionPoolTestCase {
     static final int CONNECTION_IDLE_TIMEOUT = 1000;
     static String MAX_CONNECTIONS_PATH = "/max-connections-test";
     static String IDLE_TIMEOUT_PATH = "/idle-timeout-path";
+    static String MAX_STREAMS_PATH = "/max-streams-test";
+    static String STATISTICS_PATH = "/statistics-test";
+    static String REQUEST_TIMEOUT_PATH = "/request-timeout-test";
+    static String CLOSE_PATH = "/close-test";
+    static String PRIORITY_PATH = "/priority-test";
+    static String ADMISSION_PATH = "/admission-test";
+    static String CONNECTION_AGE_PATH = "/connection-age-test";
+    static String FAILING_LISTENER_PATH = "/failing-listener-test";
+    static String STALE_CONNECTION_PATH = "/stale-connection-test";
 
     private static final List<ServerConnection> connections = new CopyOnWriteArrayList<>();
 
     private static volatile long currentRequests, maxActiveRequests;
+    private static volatile long currentStreamRequests, maxActiveStreamRequests;
 
     @Test
     public void testIdleTimeout() throws Exception {
@@ -122,6 +138,289 @@ public class ConnectionPoolTestCase {
         }
     }
 
+    @Test
+    public void testHttp11ConnectionsAreNotShared() throws Exception {
+        HTTPTestServer.registerPathHandler(MAX_STREAMS_PATH, new BlockingHandler(exchange -> {
+            connections.add(exchange.getConnection());
+            synchronized (ConnectionPoolTestCase.class) {
+                currentStreamRequests++;
+                if (currentStreamRequests > maxActiveStreamRequests) {
+                    maxActiveStreamRequests = currentStreamRequests;
+                }
+            }
+            Thread.sleep(200);
+            synchronized (ConnectionPoolTestCase.class) {
+                currentStreamRequests--;
+            }
+        }));
+        // the connections are not multiplexed, so each one must carry a single invocation at a time
+        HttpConnectionPool pool = new HttpConnectionPool(MAX_CONNECTION_COUNT, 10, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        List<CountDownLatch> results = new ArrayList<>();
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        connections.clear();
+        for (int i = 0; i < THREADS; ++i) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            results.add(latch);
+            doInvocation(MAX_STREAMS_PATH, pool, latch, failed);
+        }
+        for (CountDownLatch i : results) {
+            Assert.assertTrue(i.await(10, TimeUnit.SECONDS));
+        }
+        checkFailed(failed);
+        Assert.assertEquals(MAX_CONNECTION_COUNT, maxActiveStreamRequests);
+        Assert.assertEquals(MAX_CONNECTION_COUNT, new HashSet<>(connections).size());
+        connections.clear();
+    }
+
+    @Test
+    public void testStatisticsAndListener() throws Exception {
+        HTTPTestServer.registerPathHandler(STATISTICS_PATH, (exchange -> {
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger acquired = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        pool.addListener(new HttpConnectionPoolListener() {
+            @Override
+            public void connectionCreated(URI uri, long connectNanos) {
+                created.incrementAndGet();
+            }
+
+            @Override
+            public void connectionAcquired(URI uri, long waitNanos) {
+                acquired.incrementAndGet();
+            }
+
+            @Override
+            public void connectionReleased(URI uri, boolean close) {
+                released.incrementAndGet();
+            }
+        });
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        doInvocation(STATISTICS_PATH, pool, latch, failed);
+        doInvocation(STATISTICS_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+
+        HttpConnectionPoolStatistics statistics = pool.getStatistics();
+        Assert.assertEquals(1, statistics.getConnectionsCreated());
+        Assert.assertEquals(2, statistics.getAcquisitions());
+        Assert.assertEquals(0, statistics.getActiveInvocations());
+        Assert.assertEquals(1, statistics.getOpenConnections());
+        Assert.assertEquals(0, statistics.getPendingRequests());
+        Assert.assertEquals(1, created.get());
+        Assert.assertEquals(2, acquired.get());
+        Assert.assertEquals(2, released.get());
+        pool.close();
+    }
+
+    @Test
+    public void testFailingListener() throws Exception {
+        HTTPTestServer.registerPathHandler(FAILING_LISTENER_PATH, (exchange -> {
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        pool.addListener(new HttpConnectionPoolListener() {
+            @Override
+            public void connectionAcquired(URI uri, long waitNanos) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void connectionReleased(URI uri, boolean close) {
+                throw new IllegalStateException();
+            }
+        });
+        // the only connection goes back to the pool, and serves the next invocation
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        for (int i = 0; i < 2; ++i) {
+            CountDownLatch latch = new CountDownLatch(1);
+            doInvocation(FAILING_LISTENER_PATH, pool, latch, failed);
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            checkFailed(failed);
+        }
+        Assert.assertEquals(1, pool.getStatistics().getConnectionsCreated());
+        Assert.assertEquals(0, pool.getStatistics().getActiveInvocations());
+        pool.close();
+    }
+
+    @Test
+    public void testStaleConnectionRetried() throws Exception {
+        final List<ServerConnection> serverConnections = new CopyOnWriteArrayList<>();
+        final AtomicBoolean closeNext = new AtomicBoolean();
+        HTTPTestServer.registerPathHandler(STALE_CONNECTION_PATH, (exchange -> {
+            serverConnections.add(exchange.getConnection());
+            if (closeNext.compareAndSet(true, false)) {
+                // the server closes the idle connection just as the next request reaches it
+                IoUtils.safeClose(exchange.getConnection());
+            }
+        }));
+        final URI uri = new URI(HTTPTestServer.getDefaultRootServerURL());
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(uri), -1);
+        HttpTargetContext context = new HttpTargetContext(pool, false, uri, HttpMarshallerFactoryProvider.getDefaultHttpMarshallerFactoryProvider());
+        sendIdempotentRequest(context, STALE_CONNECTION_PATH).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, pool.getStatistics().getConnectionsCreated());
+        Assert.assertEquals(0, pool.getStatistics().getRetriedRequests());
+
+        // the request fails on the pooled connection, and is retried once on a new connection
+        closeNext.set(true);
+        sendIdempotentRequest(context, STALE_CONNECTION_PATH).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, pool.getStatistics().getRetriedRequests());
+        Assert.assertEquals(2, pool.getStatistics().getConnectionsCreated());
+        Assert.assertEquals(3, serverConnections.size());
+        Assert.assertSame(serverConnections.get(0), serverConnections.get(1));
+        Assert.assertNotSame(serverConnections.get(1), serverConnections.get(2));
+        pool.close();
+    }
+
+    @Test
+    public void testPendingRequestTimeout() throws Exception {
+        HTTPTestServer.registerPathHandler(REQUEST_TIMEOUT_PATH, new BlockingHandler(exchange -> {
+            Thread.sleep(1000);
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        doInvocation(REQUEST_TIMEOUT_PATH, pool, latch, failed);
+
+        // the only connection is busy, so the second request must time out while queued
+        final AtomicReference<Exception> timeout = new AtomicReference<>();
+        final CountDownLatch timeoutLatch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        pool.getConnection(connection -> {
+            connection.done(false);
+            timeoutLatch.countDown();
+        }, error -> {
+            timeout.set(error);
+            timeoutLatch.countDown();
+        }, false, null, 100);
+        Assert.assertTrue(timeoutLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Assert.assertNotNull(timeout.get());
+        Assert.assertEquals(0, pool.getStatistics().getPendingRequests());
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+    }
+
+    @Test
+    public void testPriorityRequestIgnoresConnectionLimit() throws Exception {
+        HTTPTestServer.registerPathHandler(PRIORITY_PATH, new BlockingHandler(exchange -> {
+            Thread.sleep(1000);
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        doInvocation(PRIORITY_PATH, pool, latch, failed);
+
+        // the only connection is busy, a priority request opens a reserved connection instead of waiting
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CountDownLatch priorityLatch = new CountDownLatch(1);
+        pool.getConnection(connection -> {
+            connection.done(false);
+            priorityLatch.countDown();
+        }, e -> {
+            error.set(e);
+            priorityLatch.countDown();
+        }, true, null, 500);
+        Assert.assertTrue(priorityLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(error.get());
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        // the reserved connection is closed once released
+        long end = System.currentTimeMillis() + 10000;
+        while (pool.getStatistics().getOpenConnections() > 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, pool.getStatistics().getOpenConnections());
+        pool.close();
+    }
+
+    @Test
+    public void testMaxPendingRequests() throws Exception {
+        HTTPTestServer.registerPathHandler(ADMISSION_PATH, new BlockingHandler(exchange -> {
+            Thread.sleep(1000);
+        }));
+        OptionMap options = OptionMap.create(HttpClientOptions.MAX_PENDING_REQUESTS, 1);
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        doInvocation(ADMISSION_PATH, pool, latch, failed);
+        long end = System.currentTimeMillis() + 10000;
+        while (pool.getStatistics().getActiveInvocations() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        // the only connection is busy, the second request waits and the third one is rejected right away
+        doInvocation(ADMISSION_PATH, pool, latch, failed);
+        final AtomicReference<Exception> rejected = new AtomicReference<>();
+        pool.getConnection(connection -> connection.done(false), rejected::set, false, null);
+        Assert.assertNotNull(rejected.get());
+        Assert.assertEquals(1, pool.getStatistics().getRejectedRequests());
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        pool.close();
+    }
+
+    @Test
+    public void testMaxConnectionAge() throws Exception {
+        HTTPTestServer.registerPathHandler(CONNECTION_AGE_PATH, (exchange -> {
+        }));
+        OptionMap options = OptionMap.create(HttpClientOptions.MAX_CONNECTION_AGE, 100L);
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        doInvocation(CONNECTION_AGE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        Assert.assertEquals(1, pool.getStatistics().getConnectionsCreated());
+
+        // the connection is too old to take the next invocation, which gets a new connection
+        Thread.sleep(200);
+        latch = new CountDownLatch(1);
+        doInvocation(CONNECTION_AGE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        Assert.assertEquals(2, pool.getStatistics().getConnectionsCreated());
+        pool.close();
+    }
+
+    @Test
+    public void testPoolSharedByAuthority() throws Exception {
+        HttpTargetContext context = WildflyHttpContext.getCurrent().getTargetContext(new URI(HTTPTestServer.getDefaultServerURL()));
+        HttpTargetContext sibling = WildflyHttpContext.getCurrent().getTargetContext(new URI(HTTPTestServer.getDefaultRootServerURL() + "/sibling"));
+        // each target keeps its own path and session, over the same connections
+        Assert.assertNotSame(context, sibling);
+        Assert.assertSame(context.getConnectionPool(), sibling.getConnectionPool());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        HTTPTestServer.registerPathHandler(CLOSE_PATH, (exchange -> {
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        doInvocation(CLOSE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        Assert.assertEquals(1, pool.getStatistics().getOpenConnections());
+        Assert.assertFalse(pool.isUnused(1, TimeUnit.HOURS));
+
+        pool.close();
+        // the idle connection is closed right away
+        long end = System.currentTimeMillis() + 10000;
+        while (pool.getStatistics().getOpenConnections() != 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, pool.getStatistics().getOpenConnections());
+
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        pool.getConnection(connection -> connection.done(false), error::set, false, null);
+        Assert.assertNotNull(error.get());
+    }
+
     private void doInvocation(String path, HttpConnectionPool pool, CountDownLatch latch, AtomicReference<Throwable> failed) {
 
         pool.getConnection((connectionHandle) -> {
@@ -166,6 +465,19 @@ public class ConnectionPoolTestCase {
         }, false, null);
     }
 
+    private CompletableFuture<Void> sendIdempotentRequest(HttpTargetContext context, String path) {
+        ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(path);
+        request.putAttachment(HttpTargetContext.IDEMPOTENT, true);
+        ClientAuthUtils.setupBasicAuth(request, context.getUri());
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        context.sendRequest(request, null, AuthenticationConfiguration.empty(), null, (input, response, doneCallback) -> {
+            // the connection goes back to the pool before the caller sends the next request
+            IoUtils.safeClose(doneCallback);
+            result.complete(null);
+        }, result::completeExceptionally, null, null);
+        return result;
+    }
+
     private void checkFailed(AtomicReference<Throwable> failed) {
         Throwable failure = failed.get();
         if (failure != null) {
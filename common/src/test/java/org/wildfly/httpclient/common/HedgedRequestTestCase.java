@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import io.undertow.client.ClientRequest;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wildfly.security.auth.client.AuthenticationConfiguration;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(HTTPTestServer.class)
+public class HedgedRequestTestCase {
+
+    static final String HEDGE_PATH = "/hedge-test";
+    static final HttpString ATTEMPT = new HttpString("X-Attempt");
+    // the hedging policy computes the hedging delay once this many requests were answered
+    static final int WARM_UP_REQUESTS = 32;
+
+    private static final AtomicBoolean stallNext = new AtomicBoolean();
+    private static final AtomicInteger arrivals = new AtomicInteger();
+    private static final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        HTTPTestServer.registerPathHandler(HEDGE_PATH, exchange -> {
+            arrivals.incrementAndGet();
+            if (stallNext.compareAndSet(true, false)) {
+                release.await();
+                exchange.getResponseHeaders().put(ATTEMPT, "stalled");
+            } else {
+                exchange.getResponseHeaders().put(ATTEMPT, "fast");
+            }
+        });
+        final URI uri = new URI(HTTPTestServer.getDefaultRootServerURL());
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.HEDGE_PERCENTILE, 50)
+                .set(HttpClientOptions.HEDGE_BUDGET, 10)
+                .getMap();
+        final HttpConnectionPool pool = new HttpConnectionPool(10, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, new HostPool(uri), -1);
+        final HttpTargetContext context = new HttpTargetContext(pool, false, uri, HttpMarshallerFactoryProvider.getDefaultHttpMarshallerFactoryProvider());
+        try {
+            for (int i = 0; i < WARM_UP_REQUESTS; ++i) {
+                Assert.assertEquals("fast", sendRequest(context).get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(WARM_UP_REQUESTS, arrivals.get());
+
+            // each request earns a tenth of a hedge: the 32 warm up requests and the stalled ones pay for three hedges
+            for (int i = 1; i <= 3; ++i) {
+                final int arrived = arrivals.get();
+                stallNext.set(true);
+                // the hedge wins, and the HTTP/1.1 connection of the stalled attempt, reused from the warm up, is
+                // closed without the request being retried as if the connection was stale
+                Assert.assertEquals("fast", sendRequest(context).get(10, TimeUnit.SECONDS));
+                Assert.assertEquals(arrived + 2, arrivals.get());
+                long end = System.currentTimeMillis() + 10000;
+                while (pool.getStatistics().getConnectionsClosed() < i && System.currentTimeMillis() < end) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(i, pool.getStatistics().getConnectionsClosed());
+            }
+
+            // the budget is spent, the next stalled request is not hedged
+            final int arrived = arrivals.get();
+            stallNext.set(true);
+            final CompletableFuture<String> result = sendRequest(context);
+            Thread.sleep(500);
+            Assert.assertFalse(result.isDone());
+            Assert.assertEquals(arrived + 1, arrivals.get());
+            release.countDown();
+            Assert.assertEquals("stalled", result.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(arrived + 1, arrivals.get());
+            Assert.assertEquals(0, pool.getStatistics().getRetriedRequests());
+            Assert.assertEquals(3, pool.getStatistics().getConnectionsClosed());
+        } finally {
+            release.countDown();
+            pool.close();
+        }
+    }
+
+    private static CompletableFuture<String> sendRequest(HttpTargetContext context) {
+        final ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(HEDGE_PATH);
+        request.putAttachment(HttpTargetContext.IDEMPOTENT, true);
+        ClientAuthUtils.setupBasicAuth(request, context.getUri());
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        context.sendRequest(request, null, AuthenticationConfiguration.empty(), null, (input, response, doneCallback) -> {
+            result.complete(response.getResponseHeaders().getFirst(ATTEMPT));
+            IoUtils.safeClose(doneCallback);
+        }, result::completeExceptionally, null, null);
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostPoolTestCase {
+
+    private static final URI URI = java.net.URI.create("http://backend.invalid:8080/wildfly-services");
+
+    @Test
+    public void testEjection() throws Exception {
+        final InetAddress first = address(1);
+        final InetAddress second = address(2);
+        final HostPool hostPool = new HostPool(URI, HostPool.Strategy.STICKY, first, second);
+        hostPool.setProber((address, callback) -> callback.accept(false));
+        final HostPool.AddressResult result = hostPool.getAddress();
+        Assert.assertEquals(first, result.getAddress());
+
+        fail(result, HostPool.EJECTION_THRESHOLD - 1);
+        Assert.assertFalse(result.isEjected());
+        // a success resets the count of failures in a row
+        result.requestStarted();
+        result.requestCompleted(1000, false);
+        fail(result, HostPool.EJECTION_THRESHOLD - 1);
+        Assert.assertFalse(result.isEjected());
+        fail(result, 1);
+        Assert.assertTrue(result.isEjected());
+        // new connections go to the other address
+        Assert.assertEquals(second, hostPool.getAddress().getAddress());
+    }
+
+    @Test
+    public void testLastAddressNotEjected() throws Exception {
+        final InetAddress first = address(1);
+        final InetAddress second = address(2);
+        final HostPool hostPool = new HostPool(URI, HostPool.Strategy.LEAST_OUTSTANDING_REQUESTS, first, second);
+        hostPool.setProber((address, callback) -> callback.accept(false));
+        final HostPool.AddressResult firstResult = hostPool.getAddress(second);
+        Assert.assertEquals(first, firstResult.getAddress());
+        final HostPool.AddressResult secondResult = hostPool.getAddress(first);
+        Assert.assertEquals(second, secondResult.getAddress());
+
+        fail(firstResult, HostPool.EJECTION_THRESHOLD);
+        Assert.assertTrue(firstResult.isEjected());
+        fail(secondResult, HostPool.EJECTION_THRESHOLD * 2);
+        Assert.assertFalse(secondResult.isEjected());
+
+        final HostPool single = new HostPool(URI, HostPool.Strategy.STICKY, first);
+        final HostPool.AddressResult singleResult = single.getAddress();
+        singleResult.getAddress();
+        fail(singleResult, HostPool.EJECTION_THRESHOLD * 2);
+        Assert.assertFalse(singleResult.isEjected());
+    }
+
+    @Test
+    public void testReadmittedAfterProbe() throws Exception {
+        final InetAddress first = address(1);
+        final InetAddress second = address(2);
+        final HostPool hostPool = new HostPool(URI, HostPool.Strategy.STICKY, first, second);
+        final AtomicInteger probes = new AtomicInteger();
+        hostPool.setProber((address, callback) -> {
+            Assert.assertEquals(first, address);
+            probes.incrementAndGet();
+            callback.accept(true);
+        });
+        final HostPool.AddressResult result = hostPool.getAddress();
+        result.getAddress();
+        fail(result, HostPool.EJECTION_THRESHOLD);
+        Assert.assertTrue(result.isEjected());
+
+        // not probed before the ejection time has elapsed
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(0, probes.get());
+        Assert.assertTrue(result.isEjected());
+
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(11));
+        Assert.assertEquals(1, probes.get());
+        Assert.assertFalse(result.isEjected());
+    }
+
+    @Test
+    public void testEjectionTimeDoubles() throws Exception {
+        final InetAddress first = address(1);
+        final InetAddress second = address(2);
+        final HostPool hostPool = new HostPool(URI, HostPool.Strategy.STICKY, first, second);
+        final AtomicInteger probes = new AtomicInteger();
+        hostPool.setProber((address, callback) -> {
+            probes.incrementAndGet();
+            callback.accept(false);
+        });
+        final HostPool.AddressResult result = hostPool.getAddress();
+        result.getAddress();
+        fail(result, HostPool.EJECTION_THRESHOLD);
+        Assert.assertTrue(result.isEjected());
+
+        // ejected for 10 seconds, the probe fails
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(11));
+        Assert.assertEquals(1, probes.get());
+        Assert.assertTrue(result.isEjected());
+
+        // ejected for 20 more seconds
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(11));
+        Assert.assertEquals(1, probes.get());
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(21));
+        Assert.assertEquals(2, probes.get());
+        Assert.assertTrue(result.isEjected());
+
+        // then for 40 more seconds
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(31));
+        Assert.assertEquals(2, probes.get());
+        hostPool.probeEjectedAddresses(System.nanoTime() + TimeUnit.SECONDS.toNanos(41));
+        Assert.assertEquals(3, probes.get());
+    }
+
+    private static void fail(HostPool.AddressResult result, int count) {
+        for (int i = 0; i < count; ++i) {
+            result.requestStarted();
+            result.requestCompleted(1000, true);
+        }
+    }
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+    }
+}
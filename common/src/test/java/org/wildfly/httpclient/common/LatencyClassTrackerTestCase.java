@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyClassTrackerTestCase {
+
+    @Test
+    public void testSlowClass() {
+        LatencyClassTracker tracker = new LatencyClassTracker();
+        for (int i = 0; i < 200; ++i) {
+            tracker.record("fast", TimeUnit.MILLISECONDS.toNanos(1));
+            if (i % 10 == 0) {
+                tracker.record("report", TimeUnit.SECONDS.toNanos(2));
+            }
+        }
+        Assert.assertTrue(tracker.isSlow("report"));
+        Assert.assertFalse(tracker.isSlow("fast"));
+        Assert.assertFalse(tracker.isSlow("unknown"));
+        Assert.assertFalse(tracker.isSlow(null));
+
+        // the report got fast
+        for (int i = 0; i < 50; ++i) {
+            tracker.record("report", TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        Assert.assertFalse(tracker.isSlow("report"));
+    }
+
+    @Test
+    public void testUniformLatency() {
+        LatencyClassTracker tracker = new LatencyClassTracker();
+        for (int i = 0; i < 100; ++i) {
+            tracker.record("a", TimeUnit.SECONDS.toNanos(1));
+            tracker.record("b", TimeUnit.SECONDS.toNanos(1));
+        }
+        // no class is slower than the others
+        Assert.assertFalse(tracker.isSlow("a"));
+        Assert.assertFalse(tracker.isSlow("b"));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestBodyOutputStreamTestCase {
+
+    @Test
+    public void testSmallBodySentWithLength() throws IOException {
+        List<Long> sent = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        RequestBodyOutputStream out = new RequestBodyOutputStream(1024, contentLength -> {
+            sent.add(contentLength);
+            return body;
+        });
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 7);
+        out.write(1);
+        out.write(data);
+        out.flush();
+        Assert.assertTrue("request sent before the body was complete", sent.isEmpty());
+        out.close();
+        Assert.assertTrue("request sent by close", sent.isEmpty());
+        out.finish();
+        out.close();
+        Assert.assertEquals(Arrays.asList(1001L), sent);
+        Assert.assertEquals(1001, body.size());
+        Assert.assertEquals(1, body.toByteArray()[0]);
+        Assert.assertEquals(7, body.toByteArray()[1000]);
+    }
+
+    @Test
+    public void testEmptyBody() throws IOException {
+        List<Long> sent = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new RequestBodyOutputStream(1024, contentLength -> {
+            sent.add(contentLength);
+            return body;
+        }).finish();
+        Assert.assertEquals(Arrays.asList(0L), sent);
+        Assert.assertEquals(0, body.size());
+    }
+
+    @Test
+    public void testLargeBodySentChunked() throws IOException {
+        List<Long> sent = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        RequestBodyOutputStream out = new RequestBodyOutputStream(1024, contentLength -> {
+            sent.add(contentLength);
+            return body;
+        });
+        byte[] data = new byte[600];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        out.write(data);
+        Assert.assertTrue(sent.isEmpty());
+        out.write(data);
+        Assert.assertEquals(Arrays.asList(-1L), sent);
+        out.write(42);
+        out.finish();
+        Assert.assertEquals(Arrays.asList(-1L), sent);
+        byte[] written = body.toByteArray();
+        Assert.assertEquals(1201, written.length);
+        Assert.assertArrayEquals(data, Arrays.copyOfRange(written, 600, 1200));
+        Assert.assertEquals(42, written[1200]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        RequestBodyOutputStream out = new RequestBodyOutputStream(1024, contentLength -> new ByteArrayOutputStream());
+        out.close();
+        out.write(1);
+    }
+
+    @Test
+    public void testAbortedBodyNotSent() throws IOException {
+        List<Long> sent = new ArrayList<>();
+        RequestBodyOutputStream out = new RequestBodyOutputStream(1024, contentLength -> {
+            sent.add(contentLength);
+            return new ByteArrayOutputStream();
+        });
+        out.write(new byte[100]);
+        // marshallers close their stream even if they fail
+        out.close();
+        out.abort();
+        Assert.assertTrue("truncated body was sent", sent.isEmpty());
+        Assert.assertFalse(out.isRequestSent());
+        try {
+            out.finish();
+            Assert.fail("finish after abort");
+        } catch (IOException expected) {
+        }
+        Assert.assertTrue(sent.isEmpty());
+    }
+}
@@ -39,6 +39,21 @@ public class WildflyClientParserTestCase {
         Assert.assertEquals(10000, builder.getIdleTimeout());
         Assert.assertEquals(1, builder.getMaxConnections());
         Assert.assertEquals(1, builder.getMaxStreamsPerConnection());
+        Assert.assertEquals(1, builder.getMinIdleConnections());
+        Assert.assertEquals(5000, builder.getRequestTimeout());
+        Assert.assertEquals(HostPool.Strategy.LEAST_OUTSTANDING_REQUESTS, builder.getLoadBalancing());
+        Assert.assertEquals(30000, builder.getDnsTtl());
+        Assert.assertEquals(600000, builder.getTargetIdleTimeout());
+        Assert.assertNull(builder.getAdaptiveConcurrency());
+        Assert.assertEquals(95, builder.getHedgePercentile());
+        Assert.assertEquals(5, builder.getHedgeBudget());
+        Assert.assertEquals(500, builder.getMaxPendingRequests());
+        Assert.assertEquals(67108864, builder.getMaxInFlightBytes());
+        Assert.assertEquals(600000, builder.getMaxConnectionAge());
+        Assert.assertNull(builder.getH2cPriorKnowledge());
+        Assert.assertEquals(2, builder.getReadAheadBuffers());
+        Assert.assertEquals(3, builder.getWriteBehindBuffers());
+        Assert.assertEquals(4096, builder.getMaxBufferedBodySize());
         Assert.assertEquals(false, builder.getEagerlyAcquireSession());
 
 
@@ -48,7 +63,21 @@ public class WildflyClientParserTestCase {
         Assert.assertEquals(30000, context.getIdleTimeout());
         Assert.assertEquals(20, context.getMaxConnections());
         Assert.assertEquals(20, context.getMaxStreamsPerConnection());
+        Assert.assertEquals(2, context.getMinIdleConnections());
+        Assert.assertEquals(20000, context.getRequestTimeout());
+        Assert.assertEquals(HostPool.Strategy.POWER_OF_TWO_CHOICES, context.getLoadBalancing());
+        Assert.assertEquals(60000, context.getDnsTtl());
+        Assert.assertEquals(true, context.getAdaptiveConcurrency());
+        Assert.assertEquals(99, context.getHedgePercentile());
+        Assert.assertEquals(0, context.getHedgeBudget());
+        Assert.assertEquals(1000, context.getMaxPendingRequests());
+        Assert.assertEquals(0, context.getMaxInFlightBytes());
+        Assert.assertEquals(300000, context.getMaxConnectionAge());
+        Assert.assertEquals(8, context.getReadAheadBuffers());
+        Assert.assertEquals(4, context.getWriteBehindBuffers());
+        Assert.assertEquals(2048, context.getMaxBufferedBodySize());
         Assert.assertEquals(true, context.getEagerlyAcquireSession());
+        Assert.assertEquals(true, context.getH2cPriorKnowledge());
 
         Assert.assertEquals(new URI("http://localhost:8080"), context.getUri());
 
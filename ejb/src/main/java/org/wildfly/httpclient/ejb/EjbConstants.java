@@ -52,6 +52,18 @@ final class EjbConstants {
     // cookies
     static final String JSESSIONID_COOKIE_NAME = "JSESSIONID";
 
+    // context data
+    /**
+     * The timeout of an invocation in milliseconds, as a number or a string. Overrides the request timeout configured
+     * for the target.
+     */
+    static final String REQUEST_TIMEOUT_CONTEXT_DATA_KEY = "org.wildfly.httpclient.request-timeout";
+
+    /**
+     * Marks an invocation as safe to execute twice, as a boolean or a string, so that it can be hedged.
+     */
+    static final String IDEMPOTENT_CONTEXT_DATA_KEY = "org.wildfly.httpclient.idempotent";
+
     // protocols
     static final String HTTP_SCHEME = "http";
     static final String HTTPS_SCHEME = "https";
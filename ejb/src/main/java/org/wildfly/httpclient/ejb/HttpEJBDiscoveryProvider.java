@@ -23,7 +23,6 @@ import io.undertow.util.Methods;
 import org.jboss.ejb.client.EJBClientConnection;
 import org.jboss.ejb.client.EJBClientContext;
 import org.jboss.ejb.client.EJBModuleIdentifier;
-import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.discovery.AttributeValue;
 import org.wildfly.discovery.FilterSpec;
@@ -166,13 +165,14 @@ public final class HttpEJBDiscoveryProvider implements DiscoveryProvider {
                         targetContext.getProtocolVersion() + EJB_DISCOVER_PATH)
                 .setMethod(Methods.GET);
         request.getRequestHeaders().add(Headers.ACCEPT, EJB_DISCOVERY_RESPONSE + "," + EJB_EXCEPTION);
+        request.putAttachment(HttpTargetContext.IDEMPOTENT, true);
 
         targetContext.sendRequest(request, sslContext, authenticationConfiguration, null,
                 ((result, response, closeable) -> {
                     try {
                         final Unmarshaller unmarshaller = targetContext.getHttpMarshallerFactory(request).createUnmarshaller();
 
-                        unmarshaller.start(new InputStreamByteInput(result));
+                        unmarshaller.start(HttpTargetContext.createByteInput(result));
                         int size = unmarshaller.readInt();
 
                         for (int i = 0; i < size; i++) {
@@ -30,6 +30,7 @@ import static org.wildfly.httpclient.ejb.EjbConstants.EJB_OPEN_PATH;
 import io.undertow.client.ClientRequest;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
+import org.wildfly.httpclient.common.HttpTargetContext;
 import org.wildfly.httpclient.common.Protocol;
 
 import java.io.UnsupportedEncodingException;
@@ -265,6 +266,9 @@ class HttpEJBInvocationBuilder {
                 clientRequest.getRequestHeaders().put(INVOCATION_ID, invocationId);
             }
             clientRequest.setPath(buildPath(mountPoint, EJB_INVOKE_PATH, appName, moduleName, distinctName, beanName, beanId, view, method));
+            // the latency of a method does not depend on the session it is invoked on
+            clientRequest.putAttachment(HttpTargetContext.LATENCY_CLASS, beanId == null ? clientRequest.getPath() :
+                    buildPath(mountPoint, EJB_INVOKE_PATH, appName, moduleName, distinctName, beanName, null, view, method));
             clientRequest.getRequestHeaders().put(Headers.CONTENT_TYPE, INVOCATION.toString());
         } else if (invocationType == InvocationType.STATEFUL_CREATE) {
             clientRequest.setMethod(Methods.POST);
@@ -31,7 +31,6 @@ import org.jboss.ejb.client.EJBReceiverSessionCreationContext;
 import org.jboss.ejb.client.SessionID;
 import org.jboss.ejb.client.StatefulEJBLocator;
 import org.jboss.marshalling.ByteOutput;
-import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
@@ -80,6 +79,8 @@ import static java.security.AccessController.doPrivileged;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTPS_PORT;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTPS_SCHEME;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTP_PORT;
+import static org.wildfly.httpclient.ejb.EjbConstants.IDEMPOTENT_CONTEXT_DATA_KEY;
+import static org.wildfly.httpclient.ejb.EjbConstants.REQUEST_TIMEOUT_CONTEXT_DATA_KEY;
 
 /**
  * EJB receiver for invocations over HTTP.
@@ -170,7 +171,14 @@ class HttpEJBReceiver extends EJBReceiver {
         if (compressResponse) {
             request.getRequestHeaders().put(Headers.ACCEPT_ENCODING, Headers.GZIP.toString());
         }
-        request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+        final Object requestTimeout = clientInvocationContext.getContextData().get(REQUEST_TIMEOUT_CONTEXT_DATA_KEY);
+        if (requestTimeout != null) {
+            request.putAttachment(HttpTargetContext.REQUEST_TIMEOUT, requestTimeout instanceof Number ? ((Number) requestTimeout).longValue() : Long.parseLong(requestTimeout.toString()));
+        }
+        final Object idempotent = clientInvocationContext.getContextData().get(IDEMPOTENT_CONTEXT_DATA_KEY);
+        if (idempotent != null && Boolean.parseBoolean(idempotent.toString())) {
+            request.putAttachment(HttpTargetContext.IDEMPOTENT, true);
+        }
         final boolean compressRequest = receiverContext.getClientInvocationContext().isCompressRequest();
         if (compressRequest) {
             request.getRequestHeaders().put(Headers.CONTENT_ENCODING, Headers.GZIP.toString());
@@ -206,7 +214,7 @@ class HttpEJBReceiver extends EJBReceiver {
 
                                     final Unmarshaller unmarshaller = createUnmarshaller(targetContext.getUri(), targetContext.getHttpMarshallerFactory(request));
 
-                                    unmarshaller.start(new InputStreamByteInput(input));
+                                    unmarshaller.start(HttpTargetContext.createByteInput(input));
                                     returned = unmarshaller.readObject();
                                     // read the attachments
                                     final Map<String, Object> attachments = readAttachments(unmarshaller);
@@ -356,7 +364,10 @@ class HttpEJBReceiver extends EJBReceiver {
                 .setBeanName(locator.getBeanName());
         final CompletableFuture<Boolean> result = new CompletableFuture<>();
         builder.setVersion(targetContext.getProtocolVersion());
-        targetContext.sendRequest(builder.createRequest(targetContext.getUri().getPath()), sslContext, authenticationConfiguration, null, (stream, response, closeable) -> {
+        final ClientRequest request = builder.createRequest(targetContext.getUri().getPath());
+        // a cancellation must not wait behind the invocations flooding the pool
+        request.putAttachment(HttpTargetContext.PRIORITY, true);
+        targetContext.sendRequest(request, sslContext, authenticationConfiguration, null, (stream, response, closeable) -> {
             try {
                 result.complete(true);
                 IoUtils.safeClose(stream);
@@ -23,7 +23,6 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
-import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
@@ -276,6 +275,10 @@ public class HttpRootContext extends AbstractContext {
                         .setPath(sb.toString())
                         .setMethod(method);
                 clientRequest.getRequestHeaders().put(Headers.ACCEPT, VALUE + "," + EXCEPTION);
+                if (!CREATE_SUBCONTEXT_PATH.equals(pathSegment)) {
+                    // lookups and listings can be hedged
+                    clientRequest.putAttachment(HttpTargetContext.IDEMPOTENT, true);
+                }
 
                 return performOperation(name1, peerIdentity.getUri(), targetContext, clientRequest);
 
@@ -318,7 +321,7 @@ public class HttpRootContext extends AbstractContext {
                     ClassLoader old = setContextClassLoader(tccl);
                     try {
                         final Unmarshaller unmarshaller = createUnmarshaller(providerUri, targetContext.getHttpMarshallerFactory(clientRequest));
-                        unmarshaller.start(new InputStreamByteInput(input));
+                        unmarshaller.start(HttpTargetContext.createByteInput(input));
                         returned = unmarshaller.readObject();
                         // finish unmarshalling
                         if (unmarshaller.read() != -1) {
@@ -93,6 +93,7 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                             targetContext.getProtocolVersion() + UT_COMMIT_PATH);
             cr.getRequestHeaders().put(Headers.ACCEPT, EXCEPTION.toString());
             cr.getRequestHeaders().put(Headers.CONTENT_TYPE, XID.toString());
+            cr.putAttachment(HttpTargetContext.PRIORITY, true);
             targetContext.sendRequest(cr, sslContext, authenticationConfiguration, output -> {
                 Marshaller marshaller = targetContext.getHttpMarshallerFactory(cr).createMarshaller();
                 marshaller.start(Marshalling.createByteOutput(output));
@@ -163,6 +164,7 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                             + UT_ROLLBACK_PATH);
             cr.getRequestHeaders().put(Headers.ACCEPT, EXCEPTION.toString());
             cr.getRequestHeaders().put(Headers.CONTENT_TYPE, XID.toString());
+            cr.putAttachment(HttpTargetContext.PRIORITY, true);
             targetContext.sendRequest(cr, sslContext, authenticationConfiguration, output -> {
                 Marshaller marshaller = targetContext.getHttpMarshallerFactory(cr).createMarshaller();
                 marshaller.start(Marshalling.createByteOutput(output));
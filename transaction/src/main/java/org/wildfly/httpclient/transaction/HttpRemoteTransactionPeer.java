@@ -21,7 +21,6 @@ package org.wildfly.httpclient.transaction;
 import io.undertow.client.ClientRequest;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
-import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.httpclient.common.HttpTargetContext;
 import org.wildfly.security.auth.client.AuthenticationConfiguration;
@@ -94,6 +93,7 @@ public class HttpRemoteTransactionPeer implements RemoteTransactionPeer {
         cr.getRequestHeaders().put(Headers.ACCEPT, XID_LIST + "," + NEW_TRANSACTION);
         cr.getRequestHeaders().put(RECOVERY_PARENT_NAME, parentName);
         cr.getRequestHeaders().put(RECOVERY_FLAGS, Integer.toString(flag));
+        cr.putAttachment(HttpTargetContext.IDEMPOTENT, true);
 
         final AuthenticationConfiguration authenticationConfiguration = getAuthenticationConfiguration(targetContext.getUri());
         final SSLContext sslContext;
@@ -108,7 +108,7 @@ public class HttpRemoteTransactionPeer implements RemoteTransactionPeer {
         targetContext.sendRequest(cr,  sslContext, authenticationConfiguration,null, (result, response, closeable) -> {
             try {
                 Unmarshaller unmarshaller = targetContext.getHttpMarshallerFactory(cr).createUnmarshaller();
-                unmarshaller.start(new InputStreamByteInput(result));
+                unmarshaller.start(HttpTargetContext.createByteInput(result));
                 int length = unmarshaller.readInt();
                 Xid[] ret = new Xid[length];
                 for(int i = 0; i < length; ++ i) {
@@ -167,7 +167,7 @@ public class HttpRemoteTransactionPeer implements RemoteTransactionPeer {
         targetContext.sendRequest(cr, sslContext, authenticationConfiguration, null, (result, response, closeable) -> {
             try {
                 Unmarshaller unmarshaller = targetContext.getHttpMarshallerFactory(cr).createUnmarshaller();
-                unmarshaller.start(new InputStreamByteInput(result));
+                unmarshaller.start(HttpTargetContext.createByteInput(result));
                 int formatId = unmarshaller.readInt();
                 int len = unmarshaller.readInt();
                 byte[] globalId = new byte[len];
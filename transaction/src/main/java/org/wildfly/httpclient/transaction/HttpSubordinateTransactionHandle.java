@@ -74,12 +74,12 @@ class HttpSubordinateTransactionHandle implements SubordinateTransactionControl
     @Override
     public void commit(boolean onePhase) throws XAException {
         String operationPath = XA_COMMIT_PATH + (onePhase ? "?opc=true" : "");
-        processOperation(operationPath);
+        processOperation(operationPath, null, true);
     }
 
     @Override
     public void rollback() throws XAException {
-        processOperation(XA_ROLLBACK_PATH);
+        processOperation(XA_ROLLBACK_PATH, null, true);
     }
 
     @Override
@@ -111,10 +111,21 @@ class HttpSubordinateTransactionHandle implements SubordinateTransactionControl
     }
 
     private <T> T processOperation(String operationPath, Function<ClientResponse, T> resultFunction) throws XAException {
+        return processOperation(operationPath, resultFunction, false);
+    }
+
+    /**
+     * @param completion {@code true} if the operation completes the transaction, and must not wait behind the
+     *                   invocations flooding the connection pool so that the server releases its locks
+     */
+    private <T> T processOperation(String operationPath, Function<ClientResponse, T> resultFunction, boolean completion) throws XAException {
         final CompletableFuture<T> result = new CompletableFuture<>();
         ClientRequest cr = new ClientRequest()
                 .setMethod(Methods.POST)
                 .setPath(targetContext.getUri().getPath() + TXN_CONTEXT + VERSION_PATH + targetContext.getProtocolVersion() + operationPath);
+        if (completion) {
+            cr.putAttachment(HttpTargetContext.PRIORITY, true);
+        }
         cr.getRequestHeaders().put(Headers.ACCEPT, EXCEPTION.toString());
         cr.getRequestHeaders().put(Headers.CONTENT_TYPE, XID.toString());
         targetContext.sendRequest(cr, sslContext, authenticationConfiguration, output -> {